@@ -0,0 +1,34 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.engine.Time;
+
+/**
+ * Stands in for the engine's Time: a game clock that only moves when the benchmark advances it, so every run sees
+ * the same sequence of times.
+ */
+final class BenchClock {
+
+    private long gameTimeInMs;
+
+    long getGameTimeInMs() {
+        return gameTimeInMs;
+    }
+
+    void advance(long ms) {
+        gameTimeInMs += ms;
+    }
+
+    /**
+     * @return a Time reading this clock, for injection into the systems
+     */
+    Time asTime() {
+        return BenchStubs.of(Time.class, (method, args) -> {
+            if (method.equals("getGameTimeInMs")) {
+                return gameTimeInMs;
+            }
+            throw BenchStubs.unsupported(method);
+        });
+    }
+}
@@ -0,0 +1,74 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.logic.delay.DelayManager;
+import org.terasology.logic.delay.DelayedActionTriggeredEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for the DelayManager. Delayed actions do not fall due by themselves; the benchmark triggers all of them
+ * at once, which is how the projectiles it spawns go back to the ProjectilePool. Holds one delayed action per
+ * entity, which is all the pool uses.
+ */
+final class BenchDelayManager implements DelayManager {
+
+    private final Map<EntityRef, String> delayedActions = new LinkedHashMap<>();
+    private final List<EntityRef> dueEntities = new ArrayList<>();
+    private final List<String> dueActions = new ArrayList<>();
+
+    @Override
+    public void addDelayedAction(EntityRef entity, String actionId, long delay) {
+        delayedActions.put(entity, actionId);
+    }
+
+    @Override
+    public void addPeriodicAction(EntityRef entity, String actionId, long initialDelay, long period) {
+        throw BenchStubs.unsupported("addPeriodicAction");
+    }
+
+    @Override
+    public void cancelDelayedAction(EntityRef entity, String actionId) {
+        delayedActions.remove(entity, actionId);
+    }
+
+    @Override
+    public void cancelPeriodicAction(EntityRef entity, String actionId) {
+        throw BenchStubs.unsupported("cancelPeriodicAction");
+    }
+
+    @Override
+    public boolean hasDelayedAction(EntityRef entity, String actionId) {
+        return actionId.equals(delayedActions.get(entity));
+    }
+
+    @Override
+    public boolean hasPeriodicAction(EntityRef entity, String actionId) {
+        return false;
+    }
+
+    /**
+     * Sends every pending delayed action, removing it first as the engine does.
+     *
+     * @return the number of actions triggered
+     */
+    int triggerAll() {
+        for (Map.Entry<EntityRef, String> entry : delayedActions.entrySet()) {
+            dueEntities.add(entry.getKey());
+            dueActions.add(entry.getValue());
+        }
+        delayedActions.clear();
+        int triggered = dueEntities.size();
+        for (int i = 0; i < triggered; i++) {
+            dueEntities.get(i).send(new DelayedActionTriggeredEvent(dueActions.get(i)));
+        }
+        dueEntities.clear();
+        dueActions.clear();
+        return triggered;
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.Event;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for an entity of the engine's EntityManager: keeps its components in a map, and sends the lifecycle
+ * events the systems rely on through the {@link BenchEventSystem} when components are added, saved or removed.
+ * Components are not copied or serialized, and there is no network replication.
+ */
+final class BenchEntity extends EntityRef {
+
+    private final BenchEventSystem events;
+    private final long id;
+    private final Prefab parentPrefab;
+    private final Map<Class<? extends Component>, Component> components = new HashMap<>();
+    private boolean exists = true;
+    private boolean persistent = true;
+    private boolean alwaysRelevant;
+    private EntityRef owner = EntityRef.NULL;
+
+    /**
+     * The direction a caster casts in, or null for other entities
+     */
+    Vector3f viewDirection;
+
+    BenchEntity(BenchEventSystem events, long id, Prefab parentPrefab) {
+        this.events = events;
+        this.id = id;
+        this.parentPrefab = parentPrefab;
+    }
+
+    @Override
+    public EntityRef copy() {
+        return this;
+    }
+
+    @Override
+    public boolean exists() {
+        return exists;
+    }
+
+    @Override
+    public boolean isActive() {
+        return exists;
+    }
+
+    @Override
+    public void destroy() {
+        if (exists) {
+            for (Class<? extends Component> componentClass : new ArrayList<>(components.keySet())) {
+                events.send(this, BeforeDeactivateComponent.newInstance(), componentClass);
+            }
+            components.clear();
+            exists = false;
+        }
+    }
+
+    @Override
+    public <T extends Event> T send(T event) {
+        if (exists) {
+            events.send(this, event, null);
+        }
+        return event;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    @Override
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    @Override
+    public boolean isAlwaysRelevant() {
+        return alwaysRelevant;
+    }
+
+    @Override
+    public void setAlwaysRelevant(boolean alwaysRelevant) {
+        this.alwaysRelevant = alwaysRelevant;
+    }
+
+    @Override
+    public EntityRef getOwner() {
+        return owner;
+    }
+
+    @Override
+    public void setOwner(EntityRef owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public Prefab getParentPrefab() {
+        return parentPrefab;
+    }
+
+    @Override
+    public String toFullDescription() {
+        return toString() + " " + components.keySet();
+    }
+
+    @Override
+    public boolean hasComponent(Class<? extends Component> component) {
+        return components.containsKey(component);
+    }
+
+    @Override
+    public <T extends Component> T getComponent(Class<T> componentClass) {
+        return componentClass.cast(components.get(componentClass));
+    }
+
+    @Override
+    public Iterable<Component> iterateComponents() {
+        return new ArrayList<>(components.values());
+    }
+
+    @Override
+    public <T extends Component> T addComponent(T component) {
+        if (!exists) {
+            return null;
+        }
+        components.put(component.getClass(), component);
+        events.send(this, OnActivatedComponent.newInstance(), component.getClass());
+        return component;
+    }
+
+    @Override
+    public void removeComponent(Class<? extends Component> componentClass) {
+        if (exists && components.containsKey(componentClass)) {
+            events.send(this, BeforeDeactivateComponent.newInstance(), componentClass);
+            components.remove(componentClass);
+        }
+    }
+
+    @Override
+    public void saveComponent(Component component) {
+        if (exists && components.containsKey(component.getClass())) {
+            components.put(component.getClass(), component);
+            events.send(this, OnChangedComponent.newInstance(), component.getClass());
+        }
+    }
+
+    @Override
+    public <T extends Component> void addOrSaveComponent(T component) {
+        if (components.containsKey(component.getClass())) {
+            saveComponent(component);
+        } else {
+            addComponent(component);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BenchEntity{" + id + "}";
+    }
+}
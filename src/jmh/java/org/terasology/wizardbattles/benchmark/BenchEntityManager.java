@@ -0,0 +1,68 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.logic.characters.GazeMountPointComponent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.utilities.random.FastRandom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for the EntityManager: holds a fixed population of casters placed from a seed, and creates the
+ * projectile entities the ProjectilePool asks for. Entities created from a prefab start without its components, which
+ * the projectile prefabs used here do not have.
+ */
+final class BenchEntityManager {
+
+    private final BenchEventSystem events;
+    private final List<BenchEntity> casters;
+    private long nextId = 1;
+
+    BenchEntityManager(BenchEventSystem events, int casterCount, long seed) {
+        this.events = events;
+        FastRandom random = new FastRandom(seed);
+        casters = new ArrayList<>(casterCount);
+        for (int i = 0; i < casterCount; i++) {
+            BenchEntity caster = create(null);
+            LocationComponent location = new LocationComponent();
+            location.setWorldPosition(new Vector3f(random.nextFloat(-512, 512), random.nextFloat(0, 64),
+                    random.nextFloat(-512, 512)));
+            caster.addComponent(location);
+            GazeMountPointComponent gaze = new GazeMountPointComponent();
+            gaze.translate.set(0, 0.6f, 0);
+            caster.addComponent(gaze);
+            caster.viewDirection = new Vector3f(random.nextFloat(-1, 1), random.nextFloat(-0.2f, 0.2f),
+                    random.nextFloat(-1, 1));
+            casters.add(caster);
+        }
+    }
+
+    BenchEntity get(int index) {
+        return casters.get(index);
+    }
+
+    int size() {
+        return casters.size();
+    }
+
+    BenchEntity create(Prefab prefab) {
+        return new BenchEntity(events, nextId++, prefab);
+    }
+
+    /**
+     * @return an EntityManager creating entities here, for injection into the systems
+     */
+    EntityManager asEntityManager() {
+        return BenchStubs.of(EntityManager.class, (method, args) -> {
+            if (method.equals("create") && args.length == 1 && args[0] instanceof Prefab) {
+                return create((Prefab) args[0]);
+            }
+            throw BenchStubs.unsupported(method);
+        });
+    }
+}
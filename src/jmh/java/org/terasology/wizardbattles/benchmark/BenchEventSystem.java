@@ -0,0 +1,66 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ConsumableEvent;
+import org.terasology.entitySystem.event.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Stands in for the engine's EventSystem: delivers the events sent to {@link BenchEntity BenchEntities} to handlers
+ * registered by hand, in the order they were registered, which the benchmark makes the order their priorities would
+ * give. As in the engine, a handler registered with a component only receives events for entities that have it, or,
+ * for lifecycle events, only events about that component.
+ */
+final class BenchEventSystem {
+
+    private final Map<Class<? extends Event>, List<Handler>> handlers = new HashMap<>();
+
+    <T extends Event> void on(Class<T> eventClass, BiConsumer<? super T, EntityRef> handler) {
+        on(eventClass, null, handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T extends Event> void on(Class<T> eventClass, Class<? extends Component> component,
+                              BiConsumer<? super T, EntityRef> handler) {
+        handlers.computeIfAbsent(eventClass, key -> new ArrayList<>())
+                .add(new Handler(component, (BiConsumer<Event, EntityRef>) handler));
+    }
+
+    /**
+     * @param lifecycleComponent the component a lifecycle event is about, or null for any other event
+     */
+    void send(EntityRef entity, Event event, Class<? extends Component> lifecycleComponent) {
+        List<Handler> eventHandlers = handlers.get(event.getClass());
+        if (eventHandlers == null) {
+            return;
+        }
+        for (int i = 0; i < eventHandlers.size(); i++) {
+            Handler handler = eventHandlers.get(i);
+            if (handler.component == null || (lifecycleComponent != null ? handler.component == lifecycleComponent
+                    : entity.hasComponent(handler.component))) {
+                handler.receiver.accept(event, entity);
+                if (event instanceof ConsumableEvent && ((ConsumableEvent) event).isConsumed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Handler {
+        private final Class<? extends Component> component;
+        private final BiConsumer<Event, EntityRef> receiver;
+
+        private Handler(Class<? extends Component> component, BiConsumer<Event, EntityRef> receiver) {
+            this.component = component;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.context.Context;
+import org.terasology.context.internal.ContextImpl;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.prefab.PrefabManager;
+import org.terasology.logic.delay.DelayManager;
+import org.terasology.logic.delay.DelayedActionTriggeredEvent;
+import org.terasology.logic.players.LocalPlayer;
+import org.terasology.network.NetworkMode;
+import org.terasology.network.NetworkSystem;
+import org.terasology.registry.InjectionHelper;
+import org.terasology.wizardbattles.casting.BeginCastingEvent;
+import org.terasology.wizardbattles.casting.CastAuthoritySystem;
+import org.terasology.wizardbattles.casting.CastingComponent;
+import org.terasology.wizardbattles.casting.CastingSystem;
+import org.terasology.wizardbattles.casting.CompleteCastingEvent;
+import org.terasology.wizardbattles.casting.PooledProjectileComponent;
+import org.terasology.wizardbattles.casting.ProjectilePool;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
+import org.terasology.wizardbattles.spell.GrimoireSystem;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+import org.terasology.wizardbattles.spell.SpellCooldownSystem;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+/**
+ * The module's own casting systems, as the engine would set them up on a server with no local player, running on
+ * the stand-ins. The CastingSystem, CastAuthoritySystem, SpellCooldownSystem, SpellRegistry and ProjectilePool are
+ * the real ones, injected with the stand-ins for Time, the EntityManager, the DelayManager and the prefab lookup,
+ * and their event handlers are registered for the events of the cast pipeline:
+ * <code>BeginCastingEvent</code>, <code>CompleteCastingEvent</code>, <code>SpellCastEvent</code>, the lifecycle
+ * events of the CastingComponent, and the expiry and destruction of pooled projectiles.
+ * <p>
+ * Systems of other modules that receive these events, such as physics picking up the launch impulse, are not set up.
+ */
+final class BenchPipeline {
+
+    final BenchClock clock = new BenchClock();
+    final BenchEventSystem events = new BenchEventSystem();
+    final BenchEntityManager entityManager;
+    final BenchDelayManager delayManager = new BenchDelayManager();
+    final BenchPrefabs prefabs = new BenchPrefabs();
+
+    final SpellRegistry spellRegistry = new SpellRegistry();
+    final SpellCooldownSystem spellCooldowns = new SpellCooldownSystem();
+    final WizardBattlesMetrics metrics = new WizardBattlesMetrics();
+    final ProjectilePool projectilePool = new ProjectilePool();
+    final CastingSystem castingSystem = new CastingSystem();
+    final CastAuthoritySystem castAuthority = new CastAuthoritySystem();
+
+    final SpellDefinition energyBolt;
+    final SpellDefinition fireball;
+
+    BenchPipeline(int casterCount, long seed) {
+        entityManager = new BenchEntityManager(events, casterCount, seed);
+
+        Context context = new ContextImpl();
+        context.put(Time.class, clock.asTime());
+        context.put(EntityManager.class, entityManager.asEntityManager());
+        context.put(PrefabManager.class, prefabs.asPrefabManager());
+        context.put(DelayManager.class, delayManager);
+        context.put(NetworkSystem.class, BenchStubs.of(NetworkSystem.class, (method, args) -> {
+            if (method.equals("getMode")) {
+                return NetworkMode.NONE;
+            }
+            throw BenchStubs.unsupported(method);
+        }));
+        context.put(LocalPlayer.class, new LocalPlayer());
+        context.put(SpellRegistry.class, spellRegistry);
+        context.put(SpellCooldownSystem.class, spellCooldowns);
+        context.put(GrimoireSystem.class, new GrimoireSystem());
+        context.put(WizardBattlesMetrics.class, metrics);
+        context.put(ProjectilePool.class, projectilePool);
+        Object[] systems = {spellRegistry, spellCooldowns, metrics, projectilePool, castingSystem, castAuthority};
+        for (Object system : systems) {
+            InjectionHelper.inject(system, context);
+        }
+
+        spellRegistry.initialise();
+        energyBolt = spellRegistry.get(BenchPrefabs.ENERGY_BOLT);
+        fireball = spellRegistry.get(BenchPrefabs.FIREBALL);
+
+        events.on(BeginCastingEvent.class, castingSystem::onBeginCasting);
+        events.on(CompleteCastingEvent.class, castAuthority::onCompleteCasting);
+        events.on(SpellCastEvent.class, castingSystem::spellCast);
+        events.on(OnActivatedComponent.class, CastingComponent.class, castingSystem::onCastingActivated);
+        events.on(OnChangedComponent.class, CastingComponent.class, castingSystem::onCastingChanged);
+        events.on(BeforeDeactivateComponent.class, CastingComponent.class, castingSystem::onCastingDeactivated);
+        events.on(DelayedActionTriggeredEvent.class, PooledProjectileComponent.class, projectilePool::onExpired);
+        events.on(BeforeDeactivateComponent.class, PooledProjectileComponent.class, projectilePool::onDestroyed);
+
+        projectilePool.postBegin();
+    }
+
+    /**
+     * Sends a caster the event its cast button sends, to cast in its view direction.
+     */
+    void beginCasting(BenchEntity caster, SpellDefinition spell) {
+        caster.send(new BeginCastingEvent(spell.getId(), caster.viewDirection, -1));
+    }
+
+    /**
+     * Lets the projectiles in flight expire, which returns them to the pool.
+     *
+     * @return the number of projectiles returned
+     */
+    int expireProjectiles() {
+        return delayManager.triggerAll();
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.terasology.assets.AssetType;
+import org.terasology.assets.ResourceUrn;
+import org.terasology.combatSystem.weaponFeatures.components.LaunchEntityComponent;
+import org.terasology.entitySystem.Component;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
+import org.terasology.entitySystem.prefab.PrefabManager;
+import org.terasology.entitySystem.prefab.internal.PojoPrefab;
+import org.terasology.wizardbattles.spell.SpellComponent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stands in for the asset lookup: builds the prefabs the SpellRegistry compiles in memory, instead of loading them
+ * from the module's assets, so the spells stay the same whatever the assets become.
+ */
+final class BenchPrefabs {
+
+    /**
+     * No casting time, so it goes straight from the cooldown check to launching its projectile
+     */
+    static final String ENERGY_BOLT = "WizardBattles:benchEnergyBolt";
+
+    /**
+     * Cast over a second before its projectile is launched
+     */
+    static final String FIREBALL = "WizardBattles:benchFireball";
+
+    static final long FIREBALL_CASTING_TIME_MS = 1000L;
+
+    private final AssetType<Prefab, PrefabData> prefabType = new AssetType<>(Prefab.class, PojoPrefab::new);
+    private final Map<String, Prefab> prefabs = new HashMap<>();
+    private final List<Prefab> spells = new ArrayList<>();
+
+    BenchPrefabs() {
+        Prefab projectile = create("WizardBattles:benchProjectile");
+        spells.add(createSpell(ENERGY_BOLT, 0, projectile, 8f));
+        spells.add(createSpell(FIREBALL, FIREBALL_CASTING_TIME_MS, projectile, 5f));
+    }
+
+    /**
+     * @return a PrefabManager listing these prefabs, for injection into the systems
+     */
+    PrefabManager asPrefabManager() {
+        return BenchStubs.of(PrefabManager.class, (method, args) -> {
+            switch (method) {
+                case "listPrefabs":
+                    if (args != null && args.length == 1 && args[0] == SpellComponent.class) {
+                        return new ArrayList<>(spells);
+                    }
+                    break;
+                case "getPrefab":
+                    return prefabs.get(((String) args[0]).toLowerCase(Locale.ROOT));
+                case "exists":
+                    return prefabs.containsKey(((String) args[0]).toLowerCase(Locale.ROOT));
+                default:
+                    break;
+            }
+            throw BenchStubs.unsupported(method);
+        });
+    }
+
+    private Prefab createSpell(String urn, long castingTimeMs, Prefab projectile, float impulse) {
+        SpellComponent spell = new SpellComponent();
+        spell.castingTimeMs = castingTimeMs;
+        LaunchEntityComponent launch = new LaunchEntityComponent();
+        launch.launchEntityPrefab = projectile;
+        launch.impulse = impulse;
+        return create(urn, spell, launch);
+    }
+
+    private Prefab create(String urn, Component... components) {
+        PrefabData data = new PrefabData();
+        data.setPersisted(false);
+        for (Component component : components) {
+            data.addComponent(component);
+        }
+        Prefab prefab = new PojoPrefab(new ResourceUrn(urn), prefabType, data);
+        prefabs.put(urn.toLowerCase(Locale.ROOT), prefab);
+        return prefab;
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Implements the engine interfaces of which the cast pipeline only calls one or two methods, such as Time and
+ * EntityManager, without depending on the rest of their methods.
+ */
+final class BenchStubs {
+
+    /**
+     * Answers a call to one of the stubbed methods.
+     */
+    @FunctionalInterface
+    interface Answer {
+        /**
+         * @throws UnsupportedOperationException if the pipeline is not expected to call the method
+         */
+        Object answer(String method, Object[] args);
+    }
+
+    private BenchStubs() {
+    }
+
+    static <T> T of(Class<T> type, Answer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Bench" + type.getSimpleName();
+                        default:
+                            return answer.answer(method.getName(), args);
+                    }
+                }));
+    }
+
+    static UnsupportedOperationException unsupported(String method) {
+        return new UnsupportedOperationException(method + " is not part of the cast pipeline");
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cast pipeline of the CastingSystem: a <code>BeginCastingEvent</code> through
+ * <code>onBeginCasting</code>, the <code>CompleteCastingEvent</code> sent at once or from <code>update()</code>, the
+ * <code>SpellCastEvent</code> it leads to, and the launch of the spell's projectile from the ProjectilePool. The
+ * systems are the module's own, set up by {@link BenchPipeline} on stand-ins for the engine.
+ * <p>
+ * Every benchmark lets the projectiles it launched expire before it returns, so the pool stays at its steady-state
+ * size rather than growing.
+ * <p>
+ * The fork, warmup and measurement settings and the random seed are fixed here so that runs on different commits
+ * can be compared. Run with the GC profiler to get the allocation rate alongside throughput, e.g.
+ * <code>-prof gc -rf json</code>. See <code>jmh.gradle</code> at the root of the module for how to build and run it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CastPipelineBenchmark {
+
+    private static final long SEED = 0x5EEDL;
+    private static final long TICK_MS = 16L;
+
+    /**
+     * A population of casters, none of them casting.
+     */
+    @State(Scope.Thread)
+    public static class Casters {
+
+        @Param({"10000"})
+        public int casters;
+
+        BenchPipeline pipeline;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pipeline = new BenchPipeline(casters, SEED);
+        }
+
+        BenchEntity nextCaster() {
+            BenchEntity caster = pipeline.entityManager.get(next);
+            next = (next + 1) % pipeline.entityManager.size();
+            return caster;
+        }
+    }
+
+    /**
+     * A population of casters all part way through casting a fireball, as if holding down the cast button: when a
+     * cast completes the caster starts the next one.
+     */
+    @State(Scope.Thread)
+    public static class CastingPopulation {
+
+        @Param({"10000"})
+        public int casters;
+
+        BenchPipeline pipeline;
+        private final List<EntityRef> completed = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pipeline = new BenchPipeline(casters, SEED);
+            // After the CastingSystem has launched the spell
+            pipeline.events.on(SpellCastEvent.class, (event, caster) -> completed.add(caster));
+
+            // Stagger the casts over one casting time, so that roughly casters * TICK_MS / castingTimeMs complete
+            // on each tick
+            long castingTimeMs = pipeline.fireball.getCastingTimeMs();
+            for (int i = 0; i < casters; i++) {
+                pipeline.clock.advance(i * castingTimeMs / casters - pipeline.clock.getGameTimeInMs());
+                pipeline.beginCasting(pipeline.entityManager.get(i), pipeline.fireball);
+            }
+        }
+
+        int restartCompleted() {
+            int restarted = completed.size();
+            for (int i = 0; i < restarted; i++) {
+                pipeline.beginCasting((BenchEntity) completed.get(i), pipeline.fireball);
+            }
+            completed.clear();
+            return restarted;
+        }
+    }
+
+    /**
+     * An energy bolt: no casting time, so the CompleteCastingEvent and SpellCastEvent are sent from within
+     * <code>onBeginCasting</code>.
+     */
+    @Benchmark
+    public int instantCast(Casters state) {
+        BenchPipeline pipeline = state.pipeline;
+        pipeline.beginCasting(state.nextCaster(), pipeline.energyBolt);
+        return pipeline.expireProjectiles();
+    }
+
+    /**
+     * A fireball: the cast is begun, its casting time passes, and <code>update()</code> completes it. Only this one
+     * caster is casting.
+     */
+    @Benchmark
+    public int timedCast(Casters state) {
+        BenchPipeline pipeline = state.pipeline;
+        pipeline.beginCasting(state.nextCaster(), pipeline.fireball);
+        pipeline.clock.advance(pipeline.fireball.getCastingTimeMs());
+        pipeline.castingSystem.update(pipeline.fireball.getCastingTimeMs() / 1000f);
+        return pipeline.expireProjectiles();
+    }
+
+    /**
+     * <code>update()</code> with every caster mid-cast and none of their casts due.
+     */
+    @Benchmark
+    public void updateIdle(CastingPopulation state) {
+        state.pipeline.castingSystem.update(0);
+    }
+
+    /**
+     * <code>update()</code> once per 16 ms tick with every caster casting continuously, so a steady share of the
+     * population completes, launches and starts casting again each tick.
+     */
+    @Benchmark
+    public int updateSteadyState(CastingPopulation state) {
+        BenchPipeline pipeline = state.pipeline;
+        pipeline.clock.advance(TICK_MS);
+        pipeline.castingSystem.update(TICK_MS / 1000f);
+        pipeline.expireProjectiles();
+        return state.restartCompleted();
+    }
+
+    /**
+     * A SpellCastEvent sent straight to a caster, as spell items do: the projectile is taken from the pool, placed,
+     * aimed and launched.
+     */
+    @Benchmark
+    public int projectileSpawn(Casters state) {
+        BenchPipeline pipeline = state.pipeline;
+        BenchEntity caster = state.nextCaster();
+        LocationComponent location = caster.getComponent(LocationComponent.class);
+        caster.send(new SpellCastEvent(caster, location.getWorldPosition(), caster.viewDirection,
+                pipeline.energyBolt));
+        return pipeline.expireProjectiles();
+    }
+}
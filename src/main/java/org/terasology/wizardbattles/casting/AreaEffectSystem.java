@@ -0,0 +1,62 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.health.EngineDamageTypes;
+import org.terasology.logic.health.event.DoDamageEvent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.registry.In;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+import org.terasology.wizardbattles.targeting.FactionComponent;
+import org.terasology.wizardbattles.targeting.SpellTargetIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Damages everything caught in the area of a spell with an area effect, found through the {@link SpellTargetIndex}.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class AreaEffectSystem extends BaseComponentSystem {
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private SpellTargetIndex targetIndex;
+
+    private final List<EntityRef> targets = new ArrayList<>();
+
+    @ReceiveEvent
+    public void onSpellCast(SpellCastEvent event, EntityRef caster) {
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        if (spell == null || spell.getAreaEffect() == null) {
+            return;
+        }
+        LocationComponent location = caster.getComponent(LocationComponent.class);
+        if (location == null) {
+            return;
+        }
+        SpellDefinition.AreaEffect areaEffect = spell.getAreaEffect();
+        String excludeFaction = null;
+        if (!areaEffect.isAffectsOwnFaction()) {
+            FactionComponent faction = caster.getComponent(FactionComponent.class);
+            excludeFaction = faction != null ? faction.faction : null;
+        }
+
+        targets.clear();
+        targetIndex.findInCone(location.getWorldPosition(), event.getDirection(), areaEffect.getRadius(),
+                areaEffect.getHalfAngleDegrees(), caster, excludeFaction, targets);
+        for (int i = 0; i < targets.size(); i++) {
+            targets.get(i).send(new DoDamageEvent(areaEffect.getDamage(), EngineDamageTypes.DIRECT.get(), caster));
+        }
+        targets.clear();
+    }
+}
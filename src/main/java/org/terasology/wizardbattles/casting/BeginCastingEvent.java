@@ -3,6 +3,47 @@
 package org.terasology.wizardbattles.casting;
 
 import org.terasology.entitySystem.event.Event;
+import org.terasology.math.geom.Vector3f;
 
 public class BeginCastingEvent implements Event {
+
+    /**
+     * The SpellRegistry id of the spell to cast
+     */
+    private int spellId = -1;
+
+    /**
+     * The direction to cast in, or null to use the local player's view direction when the cast completes
+     */
+    private Vector3f direction;
+
+    /**
+     * The id the requesting client gave its prediction of this cast, or -1 if the cast was not predicted
+     */
+    private int predictionId = -1;
+
+    public BeginCastingEvent() {
+    }
+
+    public BeginCastingEvent(int spellId) {
+        this.spellId = spellId;
+    }
+
+    public BeginCastingEvent(int spellId, Vector3f direction, int predictionId) {
+        this.spellId = spellId;
+        this.direction = direction;
+        this.predictionId = predictionId;
+    }
+
+    public int getSpellId() {
+        return spellId;
+    }
+
+    public Vector3f getDirection() {
+        return direction;
+    }
+
+    public int getPredictionId() {
+        return predictionId;
+    }
 }
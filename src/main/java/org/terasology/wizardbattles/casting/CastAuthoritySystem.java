@@ -0,0 +1,110 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.characters.CharacterComponent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.logic.players.LocalPlayer;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.wizardbattles.mana.ManaUtil;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
+import org.terasology.wizardbattles.spell.GrimoireSystem;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+import org.terasology.wizardbattles.spell.SpellCooldownSystem;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+/**
+ * The server side of predicted casting. Requests from clients are validated against the server's own view of the
+ * caster's grimoire, casting state, cooldowns and mana before the mana is spent and the cast begun, and casts by anything other
+ * than the local player are completed here using the direction given when they began.
+ * <p>
+ * Every request that carries a prediction id is answered with a {@link CastResultEvent}, so the client can remove its
+ * provisional projectile and correct its mana.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class CastAuthoritySystem extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(CastAuthoritySystem.class);
+
+    @In
+    private Time time;
+
+    @In
+    private LocalPlayer localPlayer;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private GrimoireSystem grimoires;
+
+    @In
+    private SpellCooldownSystem spellCooldowns;
+
+    @In
+    private WizardBattlesMetrics metrics;
+
+    @ReceiveEvent(components = CharacterComponent.class)
+    public void onCastSpellRequest(CastSpellRequestEvent event, EntityRef character) {
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        String rejection = null;
+        if (spell == null) {
+            rejection = "unknown spell " + event.getSpellId();
+        } else if (!grimoires.get(character).knows(spell)) {
+            rejection = "spell not in grimoire";
+        } else if (character.hasComponent(CastingComponent.class)) {
+            rejection = "already casting";
+        } else if (!spellCooldowns.isReady(character, spell)) {
+            rejection = "on cooldown";
+        } else if (!ManaUtil.hasSufficient(spell, character, time.getGameTimeInMs())) {
+            metrics.castRejectedForMana();
+            rejection = "insufficient mana";
+        }
+
+        if (rejection != null) {
+            logger.debug("Rejected cast request {} from {}: {}", event.getPredictionId(), character, rejection);
+            character.send(new CastResultEvent(event.getPredictionId(), false, rejection, getMana(character)));
+            return;
+        }
+        ManaUtil.sendConsumeEvent(character, spell);
+        character.send(new BeginCastingEvent(spell.getId(), event.getDirection(), event.getPredictionId()));
+    }
+
+    /**
+     * The local player's casts are completed by the {@link CastingClientSystem}, which aims them from the player's
+     * current view. Everyone else's are aimed where they were looking when the cast began.
+     */
+    @ReceiveEvent
+    public void onCompleteCasting(CompleteCastingEvent event, EntityRef caster) {
+        if (caster.equals(localPlayer.getCharacterEntity())) {
+            return;
+        }
+        if (caster.hasComponent(CastingComponent.class)) {
+            caster.removeComponent(CastingComponent.class);
+        }
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        LocationComponent location = caster.getComponent(LocationComponent.class);
+        if (spell != null && location != null) {
+            Vector3f direction = event.getDirection() != null ? event.getDirection() : location.getWorldDirection();
+            caster.send(new SpellCastEvent(caster, location.getWorldPosition(), direction, spell));
+        }
+        if (event.getPredictionId() >= 0) {
+            String rejection = spell != null ? null : "unknown spell " + event.getSpellId();
+            caster.send(new CastResultEvent(event.getPredictionId(), spell != null, rejection, getMana(caster)));
+        }
+    }
+
+    private float getMana(EntityRef character) {
+        return ManaUtil.getCurrent(character, time.getGameTimeInMs());
+    }
+}
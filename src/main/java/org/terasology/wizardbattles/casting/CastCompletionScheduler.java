@@ -0,0 +1,115 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the casters that are part way through casting a spell ordered by the game time at which their cast completes
+ * (<code>begunAt + timeRequired</code>), so a tick only has to look at the casters whose completion is actually due.
+ * <p>
+ * Cancelled completions are not removed from the queue straight away; they are marked and dropped when they reach
+ * the head of the queue, which keeps {@link #cancel(Object)} cheap.
+ *
+ * @param <T> the type identifying a caster, normally an EntityRef
+ */
+public class CastCompletionScheduler<T> {
+
+    private static final Comparator<Completion<?>> BY_DUE_TIME = Comparator.comparingLong(c -> c.dueAt);
+
+    private final PriorityQueue<Completion<T>> queue = new PriorityQueue<>(BY_DUE_TIME);
+    private final Map<T, Completion<T>> pending = new HashMap<>();
+
+    /**
+     * Schedules the completion of a cast, replacing any completion already pending for the caster.
+     *
+     * @param caster the caster
+     * @param dueAt the game time in ms at which the cast completes
+     */
+    public void schedule(T caster, long dueAt) {
+        Completion<T> completion = new Completion<>(caster, dueAt);
+        Completion<T> previous = pending.put(caster, completion);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        queue.add(completion);
+    }
+
+    /**
+     * @param caster the caster
+     * @return true if a pending completion was cancelled
+     */
+    public boolean cancel(T caster) {
+        Completion<T> completion = pending.remove(caster);
+        if (completion != null) {
+            completion.cancelled = true;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isScheduled(T caster) {
+        return pending.containsKey(caster);
+    }
+
+    /**
+     * @return the number of casters with a pending completion
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the game time of the earliest pending completion, or Long.MAX_VALUE if there is none
+     */
+    public long nextDueAt() {
+        Completion<T> head = queue.peek();
+        while (head != null && head.cancelled) {
+            queue.poll();
+            head = queue.peek();
+        }
+        return head != null ? head.dueAt : Long.MAX_VALUE;
+    }
+
+    /**
+     * Removes every completion due at or before the given time and hands its caster to the consumer, earliest first.
+     *
+     * @param now the current game time in ms
+     * @param onDue called once for each caster whose cast has completed
+     * @return the number of completions fired
+     */
+    public int pollDue(long now, Consumer<T> onDue) {
+        int fired = 0;
+        Completion<T> head = queue.peek();
+        while (head != null && head.dueAt <= now) {
+            queue.poll();
+            if (!head.cancelled) {
+                pending.remove(head.caster);
+                onDue.accept(head.caster);
+                fired++;
+            }
+            head = queue.peek();
+        }
+        return fired;
+    }
+
+    public void clear() {
+        queue.clear();
+        pending.clear();
+    }
+
+    private static final class Completion<T> {
+        private final T caster;
+        private final long dueAt;
+        private boolean cancelled;
+
+        private Completion(T caster, long dueAt) {
+            this.caster = caster;
+            this.dueAt = dueAt;
+        }
+    }
+}
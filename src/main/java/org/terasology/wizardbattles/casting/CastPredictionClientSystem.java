@@ -0,0 +1,259 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.combatSystem.physics.events.CombatImpulseEvent;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.EventPriority;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.characters.GazeMountPointComponent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.logic.players.LocalPlayer;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.network.NetworkMode;
+import org.terasology.network.NetworkSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.utilities.random.FastRandom;
+import org.terasology.utilities.random.Random;
+import org.terasology.wizardbattles.mana.ManaComponent;
+import org.terasology.wizardbattles.mana.ManaUtil;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts the local player's casts when connected to a remote server, so that the cast bar and a provisional
+ * projectile appear straight away instead of a round trip later.
+ * <p>
+ * A predicted cast spends the mana and begins casting locally, and sends a {@link CastSpellRequestEvent} for the
+ * server to check and carry out. When the local cast completes a provisional projectile is launched, which is only
+ * for show: it is never replicated and does no damage. The server's {@link CastResultEvent} settles the prediction.
+ * Either way the provisional projectile is removed, as the server's own projectile replaces it if the cast was
+ * accepted. The local mana is then set from the server's value, less the cost of any casts still awaiting an
+ * answer, which refunds the mana of a rejected cast.
+ */
+@RegisterSystem(RegisterMode.CLIENT)
+@Share(CastPredictionClientSystem.class)
+public class CastPredictionClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(CastPredictionClientSystem.class);
+
+    /**
+     * How long past its casting time a prediction is kept waiting for the server's answer before it is dropped.
+     */
+    public static final long PREDICTION_TIMEOUT_MS = 2000L;
+
+    @In
+    private LocalPlayer localPlayer;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private NetworkSystem networkSystem;
+
+    @In
+    private Time time;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    /**
+     * The casts awaiting an answer from the server, in the order they were requested
+     */
+    private final Map<Integer, Prediction> pending = new LinkedHashMap<>();
+    private final Map<Prefab, LaunchProfile> profiles = new HashMap<>();
+    private final LaunchTrajectory trajectory = new LaunchTrajectory();
+    private final Random random = new FastRandom();
+    private int profileGeneration = -1;
+    private int nextPredictionId;
+
+    @Override
+    public void shutdown() {
+        pending.clear();
+        profiles.clear();
+    }
+
+    /**
+     * @return true if casts should be predicted, i.e. this is a client connected to a remote server
+     */
+    public boolean isPredicting() {
+        return networkSystem.getMode() == NetworkMode.CLIENT;
+    }
+
+    /**
+     * Starts a predicted cast of the given spell by the local player's character.
+     */
+    public void predictCast(EntityRef character, SpellDefinition spell) {
+        if (character.hasComponent(CastingComponent.class)) {
+            return;
+        }
+        int predictionId = nextPredictionId++;
+        org.joml.Vector3f view = localPlayer.getViewDirection();
+        Vector3f direction = new Vector3f(view.x, view.y, view.z);
+        pending.put(predictionId, new Prediction(spell, time.getGameTimeInMs()));
+
+        ManaUtil.sendConsumeEvent(character, spell);
+        character.send(new CastSpellRequestEvent(spell.getId(), predictionId, direction));
+        character.send(new BeginCastingEvent(spell.getId(), direction, predictionId));
+    }
+
+    /**
+     * Launches the provisional projectiles of a predicted cast, in place of the {@link CastingClientSystem} launching
+     * real ones.
+     */
+    @ReceiveEvent(netFilter = RegisterMode.CLIENT, priority = EventPriority.PRIORITY_HIGH)
+    public void onCompleteCasting(CompleteCastingEvent event, EntityRef character) {
+        if (!isPredicting() || event.getPredictionId() < 0) {
+            return;
+        }
+        if (character.hasComponent(CastingComponent.class)) {
+            character.removeComponent(CastingComponent.class);
+        }
+        Prediction prediction = pending.get(event.getPredictionId());
+        if (prediction != null) {
+            launchProvisional(character, event.getDirection(), prediction);
+        }
+        event.consume();
+    }
+
+    @ReceiveEvent(netFilter = RegisterMode.CLIENT)
+    public void onCastResult(CastResultEvent event, EntityRef character) {
+        Prediction prediction = pending.remove(event.getPredictionId());
+        if (prediction != null) {
+            prediction.destroyProvisional();
+        }
+        if (!event.isAccepted()) {
+            logger.info("Cast {} rejected by server: {}", event.getPredictionId(), event.getReason());
+            CastingComponent casting = character.getComponent(CastingComponent.class);
+            if (casting != null && casting.predictionId == event.getPredictionId()) {
+                character.removeComponent(CastingComponent.class);
+            }
+        }
+        reconcileMana(character, event.getMana());
+    }
+
+    @Override
+    public void update(float delta) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long now = time.getGameTimeInMs();
+        Iterator<Prediction> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Prediction prediction = iterator.next();
+            if (now - prediction.requestedAt > prediction.spell.getCastingTimeMs() + PREDICTION_TIMEOUT_MS) {
+                // Never answered; the replicated mana will catch up on its own
+                prediction.destroyProvisional();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Sets the local mana to the server's value, less the cost of the casts the server has not yet answered.
+     */
+    private void reconcileMana(EntityRef character, float serverMana) {
+        ManaComponent manaComponent = character.getComponent(ManaComponent.class);
+        if (manaComponent == null) {
+            return;
+        }
+        float predicted = serverMana;
+        for (Prediction prediction : pending.values()) {
+            predicted -= prediction.spell.getManaCost();
+        }
+        long now = time.getGameTimeInMs();
+        if (ManaUtil.getCurrent(manaComponent, now) != predicted) {
+            manaComponent.current = predicted;
+            manaComponent.lastUpdateTime = now;
+            character.saveComponent(manaComponent);
+        }
+    }
+
+    private void launchProvisional(EntityRef character, Vector3f direction, Prediction prediction) {
+        LocationComponent shooterLoc = character.getComponent(LocationComponent.class);
+        if (shooterLoc == null || direction == null) {
+            return;
+        }
+        GazeMountPointComponent gaze = character.getComponent(GazeMountPointComponent.class);
+        Vector3f gazeOffset = null;
+        if (gaze != null) {
+            gazeOffset = new Vector3f(gaze.translate.x, gaze.translate.y, gaze.translate.z);
+        }
+        SpellDefinition.Volley volley = prediction.spell.getVolley();
+        float[] directions = new float[volley.getCount() * 3];
+        Vector3f aim = new Vector3f();
+        for (SpellDefinition.Launch launch : prediction.spell.getLaunches()) {
+            Prefab prefab = launch.getLaunchEntityPrefab();
+            if (prefab == null) {
+                continue;
+            }
+            LaunchProfile profile = getProfile(prefab);
+            volley.getDirections(direction, random, directions);
+            for (int i = 0; i < volley.getCount(); i++) {
+                EntityRef projectile = entityManager.create(prefab);
+                projectile.setPersistent(false);
+                profile.applyTo(projectile);
+
+                aim.set(directions[i * 3], directions[i * 3 + 1], directions[i * 3 + 2]);
+                trajectory.aim(shooterLoc.getWorldPosition(), gazeOffset, aim, launch.getImpulse());
+                LocationComponent location = new LocationComponent();
+                location.setWorldRotation(trajectory.rotation);
+                location.setWorldScale(0.5f);
+                location.setWorldPosition(trajectory.position);
+                projectile.addOrSaveComponent(location);
+                projectile.send(new CombatImpulseEvent(new Vector3f(trajectory.impulse)));
+                prediction.provisional.add(projectile);
+            }
+        }
+    }
+
+    private LaunchProfile getProfile(Prefab prefab) {
+        if (profileGeneration != spellRegistry.getGeneration()) {
+            profiles.clear();
+            profileGeneration = spellRegistry.getGeneration();
+        }
+        LaunchProfile profile = profiles.get(prefab);
+        if (profile == null) {
+            profile = LaunchProfile.compile(prefab);
+            profiles.put(prefab, profile);
+        }
+        return profile;
+    }
+
+    private static final class Prediction {
+        private final SpellDefinition spell;
+        private final long requestedAt;
+        private final List<EntityRef> provisional = new ArrayList<>();
+
+        private Prediction(SpellDefinition spell, long requestedAt) {
+            this.spell = spell;
+            this.requestedAt = requestedAt;
+        }
+
+        private void destroyProvisional() {
+            for (EntityRef projectile : provisional) {
+                if (projectile.exists()) {
+                    projectile.destroy();
+                }
+            }
+            provisional.clear();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.event.Event;
+import org.terasology.network.OwnerEvent;
+
+/**
+ * Sent by the server to the owner of a character to settle a predicted cast. A rejected cast is answered as soon as
+ * the request is validated, an accepted cast once its projectiles have been spawned.
+ */
+@OwnerEvent
+public class CastResultEvent implements Event {
+
+    /**
+     * The client's id for the prediction being settled
+     */
+    private int predictionId = -1;
+
+    private boolean accepted;
+
+    /**
+     * Why the cast was rejected, or null if it was accepted
+     */
+    private String reason;
+
+    /**
+     * The caster's mana on the server once the cast was settled
+     */
+    private float mana;
+
+    public CastResultEvent() {
+    }
+
+    public CastResultEvent(int predictionId, boolean accepted, String reason, float mana) {
+        this.predictionId = predictionId;
+        this.accepted = accepted;
+        this.reason = reason;
+        this.mana = mana;
+    }
+
+    public int getPredictionId() {
+        return predictionId;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public float getMana() {
+        return mana;
+    }
+}
@@ -0,0 +1,50 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.event.Event;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.network.ServerEvent;
+
+/**
+ * Sent by a client to its character to ask the server to cast a spell it has already started predicting.
+ */
+@ServerEvent
+public class CastSpellRequestEvent implements Event {
+
+    /**
+     * The SpellRegistry id of the spell to cast
+     */
+    private int spellId = -1;
+
+    /**
+     * The client's id for its prediction of this cast, echoed back in the {@link CastResultEvent}
+     */
+    private int predictionId = -1;
+
+    /**
+     * The direction the player was looking in when the cast was requested
+     */
+    private Vector3f direction;
+
+    public CastSpellRequestEvent() {
+    }
+
+    public CastSpellRequestEvent(int spellId, int predictionId, Vector3f direction) {
+        this.spellId = spellId;
+        this.predictionId = predictionId;
+        this.direction = direction;
+    }
+
+    public int getSpellId() {
+        return spellId;
+    }
+
+    public int getPredictionId() {
+        return predictionId;
+    }
+
+    public Vector3f getDirection() {
+        return direction;
+    }
+}
@@ -6,48 +6,103 @@ import org.joml.Vector3f;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
-import org.terasology.entitySystem.prefab.Prefab;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.logic.common.ActivateEvent;
 import org.terasology.logic.players.LocalPlayer;
+import org.terasology.network.ClientComponent;
 import org.terasology.registry.In;
-import org.terasology.utilities.Assets;
+import org.terasology.rendering.nui.NUIManager;
 import org.terasology.wizardbattles.spell.SpellCastEvent;
-import org.terasology.wizardbattles.spell.SpellSelectionComponent;
-
-import java.util.Optional;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
 
 @RegisterSystem(RegisterMode.CLIENT)
 public class CastingClientSystem extends BaseComponentSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(CastingClientSystem.class);
+    private static final String CASTING_HUD = "WizardBattles:Casting";
 
     @In
     LocalPlayer localPlayer;
 
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private NUIManager nuiManager;
+
+    private CastingWindow castingWindow;
+
+    /**
+     * Adds the cast bar to the player's HUD.
+     */
+    @Override
+    public void initialise() {
+        nuiManager.getHUD().addHUDElement(CASTING_HUD);
+        castingWindow = nuiManager.getHUD().getHUDElement(CASTING_HUD, CastingWindow.class);
+    }
+
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingActivated(OnActivatedComponent event, EntityRef entity, CastingComponent casting) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && castingWindow != null) {
+            castingWindow.setCasting(casting);
+        }
+    }
+
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingChanged(OnChangedComponent event, EntityRef entity, CastingComponent casting) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && castingWindow != null) {
+            castingWindow.setCasting(casting);
+        }
+    }
+
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && castingWindow != null) {
+            castingWindow.setCasting(null);
+        }
+    }
+
+    /**
+     * Picks up the new character when the local player respawns.
+     */
+    @ReceiveEvent(components = ClientComponent.class)
+    public void onClientChanged(OnChangedComponent event, EntityRef client) {
+        if (client.equals(localPlayer.getClientEntity()) && castingWindow != null) {
+            castingWindow.setCasting(localPlayer.getCharacterEntity().getComponent(CastingComponent.class));
+        }
+    }
+
+    /**
+     * Completes the local player's own casts, aimed from the player's current view. Casts by other entities are
+     * completed by the {@link CastAuthoritySystem}.
+     */
     @ReceiveEvent(netFilter = RegisterMode.CLIENT)
     public void onCompleteCasting(CompleteCastingEvent event, EntityRef entity) {
+        if (!entity.equals(localPlayer.getCharacterEntity())) {
+            return;
+        }
         entity.removeComponent(CastingComponent.class);
-        SpellSelectionComponent spellSelectionComponent = entity.getComponent(SpellSelectionComponent.class);
-        if (spellSelectionComponent.selected != null) {
-            Optional<Prefab> prefabOptional = Assets.getPrefab(spellSelectionComponent.selected);
-            prefabOptional.ifPresent(prefab -> {
-                Vector3f pos = new Vector3f(localPlayer.getPosition().x, localPlayer.getPosition().y, localPlayer.getPosition().z);
-                Vector3f vd = new Vector3f(localPlayer.getViewDirection().x, localPlayer.getViewDirection().y, localPlayer.getViewDirection().z);
-                ActivateEvent activateEvent = new ActivateEvent(
-                        null,
-                        entity,
-                        pos,
-                        vd,
-                        null,
-                        null,
-                        0);
-                SpellCastEvent spellCastEvent = new SpellCastEvent(activateEvent, prefab);
-                entity.send(spellCastEvent);
-            });
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        if (spell != null) {
+            Vector3f pos = new Vector3f(localPlayer.getPosition().x, localPlayer.getPosition().y, localPlayer.getPosition().z);
+            Vector3f vd = new Vector3f(localPlayer.getViewDirection().x, localPlayer.getViewDirection().y, localPlayer.getViewDirection().z);
+            ActivateEvent activateEvent = new ActivateEvent(
+                    null,
+                    entity,
+                    pos,
+                    vd,
+                    null,
+                    null,
+                    0);
+            SpellCastEvent spellCastEvent = new SpellCastEvent(activateEvent, spell);
+            entity.send(spellCastEvent);
         }
     }
 
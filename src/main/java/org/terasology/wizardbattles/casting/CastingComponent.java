@@ -3,6 +3,7 @@
 package org.terasology.wizardbattles.casting;
 
 import org.terasology.entitySystem.Component;
+import org.terasology.math.geom.Vector3f;
 
 public class CastingComponent implements Component {
     /**
@@ -14,4 +15,19 @@ public class CastingComponent implements Component {
      * The number of ms required to cast the spell. Copied from SpellComponent
      */
     public long timeRequired;
+
+    /**
+     * The SpellRegistry id of the spell being cast
+     */
+    public int spellId = -1;
+
+    /**
+     * The direction to cast in, or null to use the local player's view direction when the cast completes
+     */
+    public Vector3f direction;
+
+    /**
+     * The id the requesting client gave its prediction of this cast, or -1 if the cast was not predicted
+     */
+    public int predictionId = -1;
 }
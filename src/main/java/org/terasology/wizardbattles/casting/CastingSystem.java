@@ -2,41 +2,38 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.wizardbattles.casting;
 
-import com.google.common.collect.Lists;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.combatSystem.physics.events.CombatImpulseEvent;
 import org.terasology.combatSystem.weaponFeatures.components.AttackerComponent;
-import org.terasology.combatSystem.weaponFeatures.components.LaunchEntityComponent;
 import org.terasology.combatSystem.weaponFeatures.events.ReduceAmmoEvent;
 import org.terasology.engine.Time;
-import org.terasology.entitySystem.Component;
-import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
-import org.terasology.entitySystem.prefab.Prefab;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.logic.characters.GazeMountPointComponent;
 import org.terasology.logic.location.LocationComponent;
-import org.terasology.math.JomlUtil;
-import org.terasology.math.geom.BaseVector3f;
-import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
-import org.terasology.physics.CollisionGroup;
-import org.terasology.physics.StandardCollisionGroup;
-import org.terasology.physics.components.TriggerComponent;
-import org.terasology.physics.components.shapes.BoxShapeComponent;
 import org.terasology.registry.In;
-import org.terasology.rendering.logic.MeshComponent;
-import org.terasology.utilities.Assets;
+import org.terasology.utilities.random.FastRandom;
+import org.terasology.utilities.random.Random;
 import org.terasology.wizardbattles.LaunchEvent;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
 import org.terasology.wizardbattles.spell.SpellCastEvent;
-import org.terasology.wizardbattles.spell.SpellComponent;
-import org.terasology.wizardbattles.spell.SpellSelectionComponent;
+import org.terasology.wizardbattles.spell.SpellCooldownSystem;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
 
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 @RegisterSystem
 public class CastingSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
@@ -44,20 +41,56 @@ public class CastingSystem extends BaseComponentSystem implements UpdateSubscrib
     private static final Logger logger = LoggerFactory.getLogger(CastingSystem.class);
 
     @In
-    private EntityManager entityManager;
+    private Time time;
 
     @In
-    private Time time;
+    private SpellRegistry spellRegistry;
+
+    @In
+    private SpellCooldownSystem spellCooldowns;
+
+    @In
+    private ProjectilePool projectilePool;
+
+    @In
+    private WizardBattlesMetrics metrics;
+
+    private final CastCompletionScheduler<EntityRef> completionScheduler = new CastCompletionScheduler<>();
+    private final Consumer<EntityRef> completeCasting = this::completeCasting;
+    private final LaunchTrajectory trajectory = new LaunchTrajectory();
+    private final List<EntityRef> volleyProjectiles = new ArrayList<>();
+    private final Random random = new FastRandom();
+    private final Vector3f aim = new Vector3f();
+    private float[] volleyDirections = new float[3];
+    /**
+     * System.nanoTime() at which each caster's timed cast was accepted, for the cast-to-spawn latency metric, by
+     * entity id. Entries live only as long as the caster's CastingComponent.
+     */
+    private final TLongLongMap castStartedAt = new TLongLongHashMap();
+    /**
+     * The caster whose cast is being completed, and when that cast was accepted. The spell is cast while the
+     * completion is sent, so the latency is recorded then or not at all.
+     */
+    private EntityRef completingCaster = EntityRef.NULL;
+    private long completingStartedAt;
+
+    @Override
+    public void shutdown() {
+        completionScheduler.clear();
+        castStartedAt.clear();
+    }
 
     @ReceiveEvent
     public void spellCast(SpellCastEvent event, EntityRef entity) {
-        Prefab spellPrefab = event.getSpellPrefab();
-        Iterable<Component> components = spellPrefab.iterateComponents();
-        components.forEach(component -> {
-            if (component instanceof LaunchEntityComponent) {
-                launchEntity(event.getDirection(), entity, (LaunchEntityComponent) component);
-            }
-        });
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        if (spell == null) {
+            return;
+        }
+        launchVolleys(event.getDirection(), entity, spell);
+        if (entity.equals(completingCaster)) {
+            metrics.getCastToSpawnLatency().record(System.nanoTime() - completingStartedAt);
+            completingCaster = EntityRef.NULL;
+        }
     }
 
     @ReceiveEvent
@@ -65,115 +98,166 @@ public class CastingSystem extends BaseComponentSystem implements UpdateSubscrib
         CastingComponent castingComponent = entity.getComponent(CastingComponent.class);
         if (castingComponent == null) {
             // Not already casting
-            SpellSelectionComponent spellSelectionComponent = entity.getComponent(SpellSelectionComponent.class);
-            if (spellSelectionComponent.selected != null) {
-                Optional<Prefab> prefabOptional = Assets.getPrefab(spellSelectionComponent.selected);
-                final CastingComponent casting = new CastingComponent();
-                prefabOptional.ifPresent(prefab -> {
-                    SpellComponent spellComponent = prefab.getComponent(SpellComponent.class);
-                    if (spellComponent != null) {
-                        if (spellComponent.castingTimeMs > 0) {
-                            casting.begunAt = time.getGameTimeInMs();
-                            casting.timeRequired = spellComponent.castingTimeMs;
-                            entity.saveComponent(casting);
-                        } else if (spellComponent.castingTimeMs == 0) {
-                            entity.send(new CompleteCastingEvent());
-                        }
-                    }
-                });
+            SpellDefinition spell = spellRegistry.get(event.getSpellId());
+            if (spell != null && spellCooldowns.isReady(entity, spell)) {
+                spellCooldowns.use(entity, spell);
+                metrics.castStarted();
+                long startedAt = System.nanoTime();
+                if (spell.getCastingTimeMs() > 0) {
+                    castStartedAt.put(entity.getId(), startedAt);
+                    CastingComponent casting = new CastingComponent();
+                    casting.begunAt = time.getGameTimeInMs();
+                    casting.timeRequired = spell.getCastingTimeMs();
+                    casting.spellId = spell.getId();
+                    casting.direction = event.getDirection();
+                    casting.predictionId = event.getPredictionId();
+                    entity.addComponent(casting);
+                } else if (spell.getCastingTimeMs() == 0) {
+                    metrics.castCompleted();
+                    sendCompletion(entity, startedAt,
+                            new CompleteCastingEvent(spell.getId(), event.getDirection(), event.getPredictionId()));
+                }
             }
         }
     }
 
+    /**
+     * Schedules the completion of a cast whenever a CastingComponent becomes active, whether it was just added or the
+     * entity was loaded part way through a cast.
+     */
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingActivated(OnActivatedComponent event, EntityRef entity) {
+        scheduleCompletion(entity);
+    }
+
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingChanged(OnChangedComponent event, EntityRef entity) {
+        scheduleCompletion(entity);
+    }
+
+    /**
+     * Cancels the pending completion when the cast is interrupted, completed, or the caster is unloaded or destroyed.
+     */
+    @ReceiveEvent(components = CastingComponent.class)
+    public void onCastingDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        completionScheduler.cancel(entity);
+        castStartedAt.remove(entity.getId());
+    }
+
     @Override
     public void update(float delta) {
-        Iterable<EntityRef> entitiesWith = entityManager.getEntitiesWith(CastingComponent.class);
-        for (EntityRef caster : entitiesWith) {
+        long start = System.nanoTime();
+        completionScheduler.pollDue(time.getGameTimeInMs(), completeCasting);
+        metrics.getCastingUpdateTime().record(System.nanoTime() - start);
+    }
+
+    private void scheduleCompletion(EntityRef entity) {
+        CastingComponent castingComponent = entity.getComponent(CastingComponent.class);
+        completionScheduler.schedule(entity, castingComponent.begunAt + castingComponent.timeRequired);
+    }
+
+    private void completeCasting(EntityRef caster) {
+        if (caster.exists()) {
             CastingComponent castingComponent = caster.getComponent(CastingComponent.class);
-            long now = time.getGameTimeInMs();
-            if (castingComponent.begunAt + castingComponent.timeRequired <= now) {
-                caster.send(new CompleteCastingEvent());
-            }
+            metrics.castCompleted();
+            long startedAt = castStartedAt.remove(caster.getId());
+            sendCompletion(caster, startedAt, new CompleteCastingEvent(castingComponent.spellId,
+                    castingComponent.direction, castingComponent.predictionId));
         }
     }
 
     /**
-     * This code is almost a direct copy from {@link org.terasology.combatSystem.weaponFeatures.systems.LaunchEntitySystem}.
+     * Sends the completion, recording the cast-to-spawn latency if the spell is cast while it is handled.
+     *
+     * @param startedAt when the cast was accepted, or 0 if that is not known
+     */
+    private void sendCompletion(EntityRef caster, long startedAt, CompleteCastingEvent completion) {
+        if (startedAt == 0) {
+            caster.send(completion);
+            return;
+        }
+        completingCaster = caster;
+        completingStartedAt = startedAt;
+        try {
+            caster.send(completion);
+        } finally {
+            completingCaster = EntityRef.NULL;
+        }
+    }
+
+    /**
+     * This code started as an almost direct copy from
+     * {@link org.terasology.combatSystem.weaponFeatures.systems.LaunchEntitySystem}. Each of the spell's launches fires
+     * a volley, placed and aimed in a single pass: the caster's location and gaze are looked up once per cast, and the
+     * pool and the volley directions once per launch.
      * @param direction
      * @param entity
-     * @param launchEntity
+     * @param spell
      */
-    private void launchEntity(Vector3f direction,
-                              EntityRef entity,
-                              LaunchEntityComponent launchEntity) {
+    private void launchVolleys(Vector3f direction,
+                               EntityRef entity,
+                               SpellDefinition spell) {
 
-        // Launch cooldown is handled by the SpellItemComponent's cooldown
-        EntityRef player = EntityRef.NULL; // Note the entity passed in is already the ultimate entity
-        // e.g. player, trap, launcher etc.
+        // Launch cooldown is handled by the SpellCooldownSystem
+        // Note the entity passed in is already the ultimate entity e.g. player, trap, launcher etc.
+        EntityRef player = entity;
 
-
-        player = entity;
-
-        EntityRef entityToLaunch = EntityRef.NULL;
-        // creates an entity with specified prefab for eg. an arrow prefab
-        if (launchEntity.launchEntityPrefab != null) {
-            entityToLaunch = entityManager.create(launchEntity.launchEntityPrefab);
+        LocationComponent shooterLoc = player.getComponent(LocationComponent.class);
+        if (shooterLoc == null || direction == null) {
+            return;
         }
+        Vector3f shooterPosition = shooterLoc.getWorldPosition();
 
-        if (entityToLaunch != EntityRef.NULL) {
-            LocationComponent location = entityToLaunch.getComponent(LocationComponent.class);
-
-            // adds the entity as the shooter for the arrow. It will be the launcher itself.
-            entityToLaunch.addOrSaveComponent(new AttackerComponent(player)); // attacker is the player
+        GazeMountPointComponent gaze = player.getComponent(GazeMountPointComponent.class);
+        Vector3f gazeOffset = null;
+        if (gaze != null) {
+            gazeOffset = new Vector3f(gaze.translate.x, gaze.translate.y, gaze.translate.z);
+        }
 
-            LocationComponent shooterLoc = player.getComponent(LocationComponent.class);
+        SpellDefinition.Volley volley = spell.getVolley();
+        int count = volley.getCount();
+        if (volleyDirections.length < count * 3) {
+            volleyDirections = new float[count * 3];
+        }
 
-            if (shooterLoc == null) {
-                return;
+        int launched = 0;
+        List<SpellDefinition.Launch> launches = spell.getLaunches();
+        for (int l = 0; l < launches.size(); l++) {
+            SpellDefinition.Launch launch = launches.get(l);
+            if (launch.getLaunchEntityPrefab() == null) {
+                continue;
             }
+            // takes entities with the specified prefab for eg. an arrow prefab from the pool
+            volleyProjectiles.clear();
+            projectilePool.acquire(launch.getLaunchEntityPrefab(), count, volleyProjectiles);
+            volley.getDirections(direction, random, volleyDirections);
 
-            if (entityToLaunch.hasComponent(MeshComponent.class)) {
-                MeshComponent mesh = entityToLaunch.getComponent(MeshComponent.class);
-                BoxShapeComponent box = new BoxShapeComponent();
-                box.extents = JomlUtil.from(mesh.mesh.getAABB().getExtents().scale(2.0f));
-                entityToLaunch.addOrSaveComponent(box);
-            }
+            for (int i = 0; i < count; i++) {
+                EntityRef entityToLaunch = volleyProjectiles.get(i);
+                aim.set(volleyDirections[i * 3], volleyDirections[i * 3 + 1], volleyDirections[i * 3 + 2]);
+                trajectory.aim(shooterPosition, gazeOffset, aim, launch.getImpulse());
 
-            // rotates the entity to face in the direction of pointer
-            Vector3f initialDir = location.getWorldDirection();
-            Vector3f finalDir = new Vector3f(direction);
-            finalDir.normalize();
-            location.setWorldRotation(Quat4f.shortestArcQuat(initialDir, finalDir));
-
-            // sets the scale of the entity
-            location.setWorldScale(0.5f);
-
-            // sets the location of entity to current player's location with an offset
-            GazeMountPointComponent gaze = player.getComponent(GazeMountPointComponent.class);
-            if (gaze != null) {
-                BaseVector3f baseVector3f =
-                        new org.terasology.math.geom.Vector3f(gaze.translate.x, gaze.translate.y, gaze.translate.z);
-                location.setWorldPosition(shooterLoc.getWorldPosition().add(baseVector3f).add(finalDir.scale(0.3f)));
-            } else {
-                location.setWorldPosition(shooterLoc.getWorldPosition());
-            }
+                // adds the entity as the shooter for the arrow. It will be the launcher itself.
+                entityToLaunch.addOrSaveComponent(new AttackerComponent(player)); // attacker is the player
 
-            entityToLaunch.saveComponent(location);
+                // pooled projectiles are parked without a location, adding one puts them back into the world
+                LocationComponent location = new LocationComponent();
+                location.setWorldRotation(trajectory.rotation);
+                // sets the scale of the entity
+                location.setWorldScale(0.5f);
+                location.setWorldPosition(trajectory.position);
+                entityToLaunch.addOrSaveComponent(location);
 
-            if (!entityToLaunch.hasComponent(TriggerComponent.class)) {
-                TriggerComponent trigger = new TriggerComponent();
-                trigger.collisionGroup = StandardCollisionGroup.ALL;
-                trigger.detectGroups = Lists.<CollisionGroup>newArrayList(StandardCollisionGroup.DEFAULT, StandardCollisionGroup.WORLD, StandardCollisionGroup.CHARACTER, StandardCollisionGroup.SENSOR);
-                entityToLaunch.addOrSaveComponent(trigger);
+                // applies impulse to the entity
+                entityToLaunch.send(new CombatImpulseEvent(new Vector3f(trajectory.impulse)));
+                entityToLaunch.send(new LaunchEvent(new Vector3f(aim)));
             }
+            launched += count;
+        }
+        volleyProjectiles.clear();
 
-            // applies impulse to the entity
-            Vector3f impulse = finalDir;
-            impulse.normalize();
-            impulse.mul(launchEntity.impulse);
-
-            entityToLaunch.send(new CombatImpulseEvent(impulse));
-            entityToLaunch.send(new LaunchEvent(direction));
+        if (launched > 0) {
+            metrics.projectilesSpawned(launched);
             entity.send(new ReduceAmmoEvent());
         }
     }
@@ -3,39 +3,42 @@
 package org.terasology.wizardbattles.casting;
 
 import org.terasology.engine.Time;
-import org.terasology.entitySystem.entity.EntityRef;
-import org.terasology.logic.players.LocalPlayer;
 import org.terasology.nui.databinding.Binding;
 import org.terasology.nui.databinding.ReadOnlyBinding;
 import org.terasology.nui.widgets.UILoadBar;
 import org.terasology.registry.CoreRegistry;
 import org.terasology.rendering.nui.layers.hud.CoreHudWidget;
+import org.terasology.wizardbattles.hud.LocalTimeline;
 
-
+/**
+ * Shows the progress of the local player's cast. The {@link CastingClientSystem} passes in the player's
+ * CastingComponent when a cast begins and ends, and the bar is filled from then on by a {@link LocalTimeline}.
+ */
 public class CastingWindow extends CoreHudWidget {
 
+    private static final Float NO_PROGRESS = 0.0f;
+
+    private LocalTimeline progress;
+    private boolean casting;
+
     @Override
     public void initialise() {
+        progress = new LocalTimeline(CoreRegistry.get(Time.class));
         UILoadBar castingProgress = find("castingProgress", UILoadBar.class);
         castingProgress.bindVisible(new ReadOnlyBinding<Boolean>() {
             @Override
             public Boolean get() {
-                EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                return character != null && character.hasComponent(CastingComponent.class);
+                return casting;
             }
         });
         castingProgress.bindValue(
                 new Binding<Float>() {
                     @Override
                     public Float get() {
-                        EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                        if (character == null || !character.hasComponent(CastingComponent.class)) {
-                            return 0.0f;
+                        if (!casting) {
+                            return NO_PROGRESS;
                         }
-
-                        CastingComponent casting = character.getComponent(CastingComponent.class);
-                        long gameTime = CoreRegistry.get(Time.class).getGameTimeInMs();
-                        return ((float) (gameTime - casting.begunAt) / casting.timeRequired);
+                        return Math.min(1f, progress.get());
                     }
 
                     @Override
@@ -43,4 +46,16 @@ public class CastingWindow extends CoreHudWidget {
                     }
                 });
     }
+
+    /**
+     * @param castingComponent the local player's cast, or null to hide the window
+     */
+    public void setCasting(CastingComponent castingComponent) {
+        casting = castingComponent != null && castingComponent.timeRequired > 0;
+        if (casting) {
+            progress.set(0f, 1000f / castingComponent.timeRequired, castingComponent.begunAt);
+        } else {
+            progress.reset();
+        }
+    }
 }
@@ -2,7 +2,48 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.wizardbattles.casting;
 
-import org.terasology.entitySystem.event.Event;
+import org.terasology.entitySystem.event.AbstractConsumableEvent;
+import org.terasology.math.geom.Vector3f;
 
-public class CompleteCastingEvent implements Event {
+public class CompleteCastingEvent extends AbstractConsumableEvent {
+
+    /**
+     * The SpellRegistry id of the spell that has been cast
+     */
+    private int spellId = -1;
+
+    /**
+     * The direction given when casting began, or null if it should be taken from the local player's view
+     */
+    private Vector3f direction;
+
+    /**
+     * The id the requesting client gave its prediction of this cast, or -1 if the cast was not predicted
+     */
+    private int predictionId = -1;
+
+    public CompleteCastingEvent() {
+    }
+
+    public CompleteCastingEvent(int spellId) {
+        this.spellId = spellId;
+    }
+
+    public CompleteCastingEvent(int spellId, Vector3f direction, int predictionId) {
+        this.spellId = spellId;
+        this.direction = direction;
+        this.predictionId = predictionId;
+    }
+
+    public int getSpellId() {
+        return spellId;
+    }
+
+    public Vector3f getDirection() {
+        return direction;
+    }
+
+    public int getPredictionId() {
+        return predictionId;
+    }
 }
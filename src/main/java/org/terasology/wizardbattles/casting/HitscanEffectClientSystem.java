@@ -0,0 +1,76 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.registry.In;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Shows the impact effect of hitscan spells where they strike. The effects are local, short-lived entities.
+ */
+@RegisterSystem(RegisterMode.CLIENT)
+public class HitscanEffectClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    /**
+     * How long an impact effect is shown for.
+     */
+    public static final long EFFECT_LIFETIME_MS = 1000L;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private Time time;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    /**
+     * Effects currently shown, oldest first, each paired with the game time at which it is removed
+     */
+    private final Deque<EntityRef> effects = new ArrayDeque<>();
+    private final Deque<Long> expiries = new ArrayDeque<>();
+
+    @Override
+    public void shutdown() {
+        effects.clear();
+        expiries.clear();
+    }
+
+    @ReceiveEvent
+    public void onHitscanEffect(HitscanEffectEvent event, EntityRef caster) {
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        if (spell == null || spell.getHitscan() == null || spell.getHitscan().getImpactEffect() == null
+                || !event.isHit()) {
+            return;
+        }
+        EntityRef effect = entityManager.create(spell.getHitscan().getImpactEffect(), event.getTo());
+        effect.setPersistent(false);
+        effects.addLast(effect);
+        expiries.addLast(time.getGameTimeInMs() + EFFECT_LIFETIME_MS);
+    }
+
+    @Override
+    public void update(float delta) {
+        long now = time.getGameTimeInMs();
+        while (!expiries.isEmpty() && expiries.peekFirst() <= now) {
+            expiries.pollFirst();
+            EntityRef effect = effects.pollFirst();
+            if (effect.exists()) {
+                effect.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.event.Event;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.network.BroadcastEvent;
+
+/**
+ * Sent to the caster of a hitscan spell so that every client can show where it struck. Carries no gameplay effect;
+ * the damage has already been done on the server.
+ */
+@BroadcastEvent
+public class HitscanEffectEvent implements Event {
+
+    /**
+     * The SpellRegistry id of the spell that was cast
+     */
+    private int spellId = -1;
+
+    private Vector3f from;
+    private Vector3f to;
+
+    /**
+     * Whether the spell struck something before reaching the end of its range
+     */
+    private boolean hit;
+
+    public HitscanEffectEvent() {
+    }
+
+    public HitscanEffectEvent(int spellId, Vector3f from, Vector3f to, boolean hit) {
+        this.spellId = spellId;
+        this.from = from;
+        this.to = to;
+        this.hit = hit;
+    }
+
+    public int getSpellId() {
+        return spellId;
+    }
+
+    public Vector3f getFrom() {
+        return from;
+    }
+
+    public Vector3f getTo() {
+        return to;
+    }
+
+    public boolean isHit() {
+        return hit;
+    }
+}
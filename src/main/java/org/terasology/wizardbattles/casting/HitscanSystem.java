@@ -0,0 +1,96 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.characters.CharacterComponent;
+import org.terasology.logic.characters.GazeMountPointComponent;
+import org.terasology.logic.health.EngineDamageTypes;
+import org.terasology.logic.health.event.DoDamageEvent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.JomlUtil;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.physics.CollisionGroup;
+import org.terasology.physics.HitResult;
+import org.terasology.physics.Physics;
+import org.terasology.physics.StandardCollisionGroup;
+import org.terasology.registry.In;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Resolves hitscan spells with a single ray cast from the caster along the aim. A character struck by the ray is
+ * damaged straight away, and a {@link HitscanEffectEvent} tells clients where to show the strike. Nothing is added to
+ * the physics world.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class HitscanSystem extends BaseComponentSystem {
+
+    private static final CollisionGroup[] HIT_GROUPS = {StandardCollisionGroup.WORLD,
+            StandardCollisionGroup.CHARACTER, StandardCollisionGroup.DEFAULT};
+
+    @In
+    private Physics physics;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private WizardBattlesMetrics metrics;
+
+    private final LaunchTrajectory trajectory = new LaunchTrajectory();
+    private final Set<EntityRef> excluded = new HashSet<>();
+
+    @ReceiveEvent
+    public void onSpellCast(SpellCastEvent event, EntityRef caster) {
+        SpellDefinition spell = spellRegistry.get(event.getSpellId());
+        if (spell == null || spell.getHitscan() == null || event.getDirection() == null) {
+            return;
+        }
+        LocationComponent location = caster.getComponent(LocationComponent.class);
+        if (location == null) {
+            return;
+        }
+        SpellDefinition.Hitscan hitscan = spell.getHitscan();
+
+        // Start the ray where a projectile would appear, so hitscan and projectile spells line up
+        GazeMountPointComponent gaze = caster.getComponent(GazeMountPointComponent.class);
+        Vector3f gazeOffset = null;
+        if (gaze != null) {
+            gazeOffset = new Vector3f(gaze.translate.x, gaze.translate.y, gaze.translate.z);
+        }
+        trajectory.aim(location.getWorldPosition(), gazeOffset, event.getDirection(), hitscan.getRange());
+        Vector3f from = new Vector3f(trajectory.position);
+        Vector3f direction = new Vector3f(trajectory.impulse);
+        direction.normalize();
+
+        excluded.clear();
+        excluded.add(caster);
+        HitResult result = physics.rayTrace(JomlUtil.from(from), JomlUtil.from(direction),
+                hitscan.getRange(), excluded, HIT_GROUPS);
+        excluded.clear();
+
+        Vector3f to;
+        if (result.isHit()) {
+            to = JomlUtil.from(result.getHitPoint());
+            EntityRef target = result.getEntity();
+            if (target.hasComponent(CharacterComponent.class)) {
+                target.send(new DoDamageEvent(hitscan.getDamage(), EngineDamageTypes.DIRECT.get(), caster));
+            }
+        } else {
+            to = new Vector3f(from);
+            to.add(trajectory.impulse);
+        }
+        metrics.hitscanResolved();
+        caster.send(new HitscanEffectEvent(spell.getId(), from, to, result.isHit()));
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import com.google.common.collect.ImmutableList;
+import org.joml.Vector3f;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.math.JomlUtil;
+import org.terasology.physics.CollisionGroup;
+import org.terasology.physics.StandardCollisionGroup;
+import org.terasology.physics.components.TriggerComponent;
+import org.terasology.physics.components.shapes.BoxShapeComponent;
+import org.terasology.rendering.logic.MeshComponent;
+
+import java.util.List;
+
+/**
+ * The physics configuration a launched projectile needs on top of its prefab, worked out once per launch prefab
+ * rather than on every launch.
+ */
+final class LaunchProfile {
+
+    /**
+     * The groups a projectile trigger detects when its prefab does not declare a trigger itself.
+     */
+    static final List<CollisionGroup> DETECT_GROUPS = ImmutableList.of(StandardCollisionGroup.DEFAULT,
+            StandardCollisionGroup.WORLD, StandardCollisionGroup.CHARACTER, StandardCollisionGroup.SENSOR);
+
+    private final Vector3f boxExtents;
+    private final boolean addTrigger;
+
+    private LaunchProfile(Vector3f boxExtents, boolean addTrigger) {
+        this.boxExtents = boxExtents;
+        this.addTrigger = addTrigger;
+    }
+
+    static LaunchProfile compile(Prefab prefab) {
+        Vector3f boxExtents = null;
+        MeshComponent mesh = prefab.getComponent(MeshComponent.class);
+        if (mesh != null && mesh.mesh != null) {
+            // The collision box follows the mesh, even when the prefab declares a box shape of its own
+            boxExtents = JomlUtil.from(mesh.mesh.getAABB().getExtents().scale(2.0f));
+        }
+        return new LaunchProfile(boxExtents, !prefab.hasComponent(TriggerComponent.class));
+    }
+
+    /**
+     * Adds the collision shape and trigger to a newly created projectile. Pooled projectiles keep them, so this is
+     * only needed once per entity.
+     */
+    void applyTo(EntityRef projectile) {
+        if (boxExtents != null) {
+            BoxShapeComponent box = new BoxShapeComponent();
+            box.extents = new Vector3f(boxExtents);
+            projectile.addOrSaveComponent(box);
+        }
+        if (addTrigger) {
+            TriggerComponent trigger = new TriggerComponent();
+            trigger.collisionGroup = StandardCollisionGroup.ALL;
+            trigger.detectGroups = DETECT_GROUPS;
+            projectile.addOrSaveComponent(trigger);
+        }
+    }
+}
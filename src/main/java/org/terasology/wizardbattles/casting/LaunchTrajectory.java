@@ -0,0 +1,56 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+
+/**
+ * Works out where a launched projectile starts, which way it faces and the impulse it is given. The results are
+ * written into this object's fields so that one instance can be reused for every launch.
+ */
+public final class LaunchTrajectory {
+
+    /**
+     * How far in front of the caster's gaze point a projectile appears.
+     */
+    public static final float MUZZLE_OFFSET = 0.3f;
+
+    /**
+     * The direction a projectile's mesh faces before it is rotated.
+     */
+    private static final Vector3f FORWARD = new LocationComponent().getWorldDirection();
+
+    public final Vector3f position = new Vector3f();
+    public final Quat4f rotation = new Quat4f(0, 0, 0, 1);
+    public final Vector3f impulse = new Vector3f();
+
+    private final Vector3f direction = new Vector3f();
+
+    /**
+     * @param shooterPosition the world position of the caster
+     * @param gazeOffset the caster's gaze mount point offset, or null if it has none
+     * @param aimDirection the direction the projectile is fired in, need not be normalised
+     * @param impulseMagnitude the size of the impulse to give the projectile
+     */
+    public void aim(Vector3f shooterPosition, Vector3f gazeOffset, Vector3f aimDirection, float impulseMagnitude) {
+        direction.set(aimDirection);
+        direction.normalize();
+
+        // rotates the entity to face in the direction of pointer
+        rotation.set(Quat4f.shortestArcQuat(FORWARD, direction));
+
+        // sets the location of entity to current player's location with an offset
+        position.set(shooterPosition);
+        if (gazeOffset != null) {
+            position.add(gazeOffset);
+            position.x += direction.x * MUZZLE_OFFSET;
+            position.y += direction.y * MUZZLE_OFFSET;
+            position.z += direction.z * MUZZLE_OFFSET;
+        }
+
+        impulse.set(direction);
+        impulse.scale(impulseMagnitude);
+    }
+}
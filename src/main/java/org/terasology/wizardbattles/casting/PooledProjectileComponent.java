@@ -0,0 +1,15 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * Marks a projectile entity that is owned by the {@link ProjectilePool} and is returned to it rather than destroyed.
+ */
+public class PooledProjectileComponent implements Component {
+    /**
+     * The SpellRegistry generation whose launch profile the projectile was configured from
+     */
+    public int generation;
+}
@@ -0,0 +1,318 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.casting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.event.EventPriority;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.delay.DelayManager;
+import org.terasology.logic.delay.DelayedActionTriggeredEvent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.physics.events.CollideEvent;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a pool of launched projectile entities per launch prefab, so that firing a spell reuses an idle projectile
+ * instead of creating a new entity each time.
+ * <p>
+ * An idle projectile is parked by removing its LocationComponent, which takes it out of the physics world and stops
+ * it rendering. A projectile returns to the pool when it hits something or when it has been in flight for
+ * {@link #PROJECTILE_LIFETIME_MS}. If some other system destroys a projectile on impact, the pool records an eviction
+ * and creates a replacement on a later miss.
+ * <p>
+ * The collision shape and trigger of a projectile are set up once, when it is created, from a {@link LaunchProfile}
+ * cached per launch prefab. When the SpellRegistry is recompiled the profile is rebuilt and idle projectiles
+ * configured from the old one are discarded. Projectiles in flight at the time are destroyed when they come back
+ * instead of being pooled again, as each is tagged with the generation it was configured under.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(ProjectilePool.class)
+public class ProjectilePool extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProjectilePool.class);
+    private static final String EXPIRY_ACTION_ID = "WizardBattles:projectileExpiry";
+
+    /**
+     * The number of idle projectiles created up front for each launch prefab.
+     */
+    public static final int PREWARM_COUNT = 8;
+
+    /**
+     * How long a projectile may be in flight before it is returned to the pool.
+     */
+    public static final long PROJECTILE_LIFETIME_MS = 10000L;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private DelayManager delayManager;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    private final Map<Prefab, Bucket> buckets = new HashMap<>();
+
+    @Override
+    public void postBegin() {
+        for (SpellDefinition spell : spellRegistry.getAll()) {
+            for (SpellDefinition.Launch launch : spell.getLaunches()) {
+                prewarm(launch.getLaunchEntityPrefab(), PREWARM_COUNT);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        buckets.clear();
+    }
+
+    /**
+     * Makes sure at least <code>count</code> idle projectiles of the given prefab are available.
+     */
+    public void prewarm(Prefab prefab, int count) {
+        Bucket bucket = getBucket(prefab);
+        while (bucket.idle.size() < count) {
+            EntityRef projectile = create(prefab, bucket);
+            park(projectile);
+            bucket.idle.push(projectile);
+        }
+    }
+
+    /**
+     * Takes an idle projectile from the pool, or creates one if there is none. The returned projectile has no
+     * LocationComponent; the caller is expected to add one, which puts it back into the world.
+     *
+     * @param prefab the launch prefab
+     * @return the projectile
+     */
+    public EntityRef acquire(Prefab prefab) {
+        Bucket bucket = getBucket(prefab);
+        EntityRef projectile = take(prefab, bucket);
+        bucket.highWater = Math.max(bucket.highWater, bucket.inFlight.size());
+        return projectile;
+    }
+
+    /**
+     * Takes several projectiles of the same prefab at once, for a volley. Works as {@link #acquire(Prefab)} does, but
+     * looks the bucket up only once.
+     *
+     * @param prefab the launch prefab
+     * @param count the number of projectiles wanted
+     * @param into receives the projectiles
+     */
+    public void acquire(Prefab prefab, int count, List<EntityRef> into) {
+        Bucket bucket = getBucket(prefab);
+        for (int i = 0; i < count; i++) {
+            into.add(take(prefab, bucket));
+        }
+        bucket.highWater = Math.max(bucket.highWater, bucket.inFlight.size());
+    }
+
+    /**
+     * Returns a projectile to the pool. Projectiles not owned by the pool are destroyed instead.
+     */
+    public void release(EntityRef projectile) {
+        Bucket bucket = buckets.get(projectile.getParentPrefab());
+        if (bucket == null || !bucket.inFlight.remove(projectile)) {
+            if (!projectile.hasComponent(PooledProjectileComponent.class)) {
+                projectile.destroy();
+            }
+            return;
+        }
+        if (delayManager.hasDelayedAction(projectile, EXPIRY_ACTION_ID)) {
+            delayManager.cancelDelayedAction(projectile, EXPIRY_ACTION_ID);
+        }
+        PooledProjectileComponent pooled = projectile.getComponent(PooledProjectileComponent.class);
+        if (pooled == null || pooled.generation != spellRegistry.getGeneration()) {
+            // Configured from a profile that has since been rebuilt
+            projectile.destroy();
+            return;
+        }
+        park(projectile);
+        bucket.idle.push(projectile);
+    }
+
+    @ReceiveEvent(components = PooledProjectileComponent.class, priority = EventPriority.PRIORITY_TRIVIAL)
+    public void onHit(CollideEvent event, EntityRef projectile) {
+        if (projectile.exists()) {
+            release(projectile);
+        }
+    }
+
+    @ReceiveEvent(components = PooledProjectileComponent.class)
+    public void onExpired(DelayedActionTriggeredEvent event, EntityRef projectile) {
+        if (event.getActionId().equals(EXPIRY_ACTION_ID)) {
+            release(projectile);
+        }
+    }
+
+    @ReceiveEvent(components = PooledProjectileComponent.class)
+    public void onDestroyed(BeforeDeactivateComponent event, EntityRef projectile) {
+        Bucket bucket = buckets.get(projectile.getParentPrefab());
+        if (bucket != null && bucket.inFlight.remove(projectile)) {
+            bucket.evictions++;
+        }
+    }
+
+    /**
+     * @return the statistics for the given launch prefab, or null if nothing has been pooled for it
+     */
+    public Statistics getStatistics(Prefab prefab) {
+        Bucket bucket = buckets.get(prefab);
+        return bucket != null ? bucket.snapshot() : null;
+    }
+
+    @Command(shortDescription = "Shows projectile pool hit, miss and high-water statistics",
+            requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String projectilePoolStats() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Prefab, Bucket> entry : buckets.entrySet()) {
+            builder.append(entry.getKey().getUrn()).append(": ").append(entry.getValue().snapshot()).append('\n');
+        }
+        return builder.length() > 0 ? builder.toString() : "No projectiles pooled";
+    }
+
+    private Bucket getBucket(Prefab prefab) {
+        Bucket bucket = buckets.get(prefab);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(prefab, bucket);
+        }
+        if (bucket.profile == null || bucket.generation != spellRegistry.getGeneration()) {
+            bucket.profile = LaunchProfile.compile(prefab);
+            bucket.generation = spellRegistry.getGeneration();
+            while (!bucket.idle.isEmpty()) {
+                bucket.idle.pop().destroy();
+            }
+        }
+        return bucket;
+    }
+
+    private EntityRef take(Prefab prefab, Bucket bucket) {
+        EntityRef projectile = EntityRef.NULL;
+        while (!bucket.idle.isEmpty() && !projectile.exists()) {
+            projectile = bucket.idle.pop();
+        }
+        if (projectile.exists()) {
+            bucket.hits++;
+        } else {
+            bucket.misses++;
+            projectile = create(prefab, bucket);
+            park(projectile);
+        }
+        bucket.inFlight.add(projectile);
+        delayManager.addDelayedAction(projectile, EXPIRY_ACTION_ID, PROJECTILE_LIFETIME_MS);
+        return projectile;
+    }
+
+    private EntityRef create(Prefab prefab, Bucket bucket) {
+        EntityRef projectile = entityManager.create(prefab);
+        projectile.setPersistent(false);
+        PooledProjectileComponent pooled = new PooledProjectileComponent();
+        pooled.generation = bucket.generation;
+        projectile.addOrSaveComponent(pooled);
+        bucket.profile.applyTo(projectile);
+        return projectile;
+    }
+
+    private void park(EntityRef projectile) {
+        if (projectile.hasComponent(LocationComponent.class)) {
+            projectile.removeComponent(LocationComponent.class);
+        }
+    }
+
+    private static final class Bucket {
+        private final Deque<EntityRef> idle = new ArrayDeque<>();
+        private final Set<EntityRef> inFlight = new HashSet<>();
+        private LaunchProfile profile;
+        private int generation;
+        private long hits;
+        private long misses;
+        private long evictions;
+        private int highWater;
+
+        private Statistics snapshot() {
+            return new Statistics(hits, misses, evictions, idle.size(), inFlight.size(), highWater);
+        }
+    }
+
+    /**
+     * A point-in-time copy of the pool counters for one launch prefab.
+     */
+    public static final class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int idle;
+        private final int inFlight;
+        private final int highWater;
+
+        private Statistics(long hits, long misses, long evictions, int idle, int inFlight, int highWater) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.idle = idle;
+            this.inFlight = inFlight;
+            this.highWater = highWater;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return the largest number of projectiles that have been in flight at once
+         */
+        public int getHighWater() {
+            return highWater;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", idle=" + idle +
+                    ", inFlight=" + inFlight +
+                    ", highWater=" + highWater;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.hud;
+
+import org.terasology.engine.Time;
+
+/**
+ * Follows a value that changes at a steady rate from a known game time, such as regenerating mana or the progress of
+ * a cast, so the HUD can show it smoothly every frame.
+ * <p>
+ * The authoritative value and the game time it was taken at are given once. The value is then carried forward on the
+ * local real-time clock, which is not adjusted when the client's game time is brought back in step with the server's,
+ * so it moves steadily between updates. It is only corrected when a newer authoritative value is set.
+ */
+public class LocalTimeline {
+
+    private final Time time;
+    private float value;
+    private float ratePerMs;
+    /**
+     * The local real time, in milliseconds, that corresponds to the game time the value was taken at
+     */
+    private long anchor;
+    private long authoritativeTime = Long.MIN_VALUE;
+
+    public LocalTimeline(Time time) {
+        this.time = time;
+    }
+
+    /**
+     * Sets the value, unless a newer one has already been set.
+     *
+     * @param authoritativeValue the value at the given game time
+     * @param ratePerSecond how fast the value changes
+     * @param gameTimeInMs the game time the value was taken at
+     * @return true if the value was set
+     */
+    public boolean set(float authoritativeValue, float ratePerSecond, long gameTimeInMs) {
+        if (gameTimeInMs < authoritativeTime) {
+            return false;
+        }
+        authoritativeTime = gameTimeInMs;
+        value = authoritativeValue;
+        ratePerMs = ratePerSecond / 1000f;
+        anchor = time.getRealTimeInMs() - (time.getGameTimeInMs() - gameTimeInMs);
+        return true;
+    }
+
+    /**
+     * Forgets the value, so that the next one set is taken whatever its game time.
+     */
+    public void reset() {
+        authoritativeTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the value carried forward to now
+     */
+    public float get() {
+        return value + ratePerMs * (time.getRealTimeInMs() - anchor);
+    }
+}
@@ -0,0 +1,233 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.mana;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.world.OnChangedBlock;
+import org.terasology.world.WorldComponent;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockComponent;
+import org.terasology.world.block.BlockManager;
+import org.terasology.world.block.family.BlockFamily;
+import org.terasology.world.chunks.Chunk;
+import org.terasology.world.chunks.ChunkConstants;
+import org.terasology.world.chunks.ChunkProvider;
+import org.terasology.world.chunks.event.BeforeChunkUnload;
+import org.terasology.world.chunks.event.OnChunkLoaded;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Boosts the mana regeneration of entities in chunks holding <code>WizardBattles:ManaCrystal</code> blocks.
+ * <p>
+ * The crystals in a chunk are counted once when it loads, and the count is kept up to date as crystals are placed and
+ * broken, so regeneration never has to look at the blocks around an entity. An entity's regeneration rate is only
+ * changed when it moves into another chunk, or the crystals in its chunk change.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(AmbientManaSystem.class)
+public class AmbientManaSystem extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(AmbientManaSystem.class);
+    private static final String CRYSTAL_FAMILY = "WizardBattles:ManaCrystal";
+
+    /**
+     * Mana per second added to regeneration for each crystal in the entity's chunk.
+     */
+    public static final float REGEN_PER_CRYSTAL = 0.25f;
+
+    /**
+     * The most mana per second crystals can add to regeneration.
+     */
+    public static final float MAX_BONUS = 4f;
+
+    @In
+    private ChunkProvider chunkProvider;
+
+    @In
+    private BlockManager blockManager;
+
+    private BlockFamily crystalFamily;
+    /**
+     * The number of crystals in each loaded chunk that has any
+     */
+    private final Map<Long, Integer> density = new HashMap<>();
+    /**
+     * The chunk each entity with mana was last seen in
+     */
+    private final Map<EntityRef, Long> entityChunks = new HashMap<>();
+    /**
+     * The entities with mana last seen in each chunk, the reverse of <code>entityChunks</code>
+     */
+    private final Map<Long, Set<EntityRef>> chunkEntities = new HashMap<>();
+
+    @Override
+    public void initialise() {
+        crystalFamily = blockManager.getBlockFamily(CRYSTAL_FAMILY);
+        if (crystalFamily == null) {
+            logger.warn("Missing block family {}, ambient mana disabled", CRYSTAL_FAMILY);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        density.clear();
+        entityChunks.clear();
+        chunkEntities.clear();
+    }
+
+    /**
+     * @return the number of mana crystals in the chunk holding the given world position, if it is loaded
+     */
+    public int getDensity(Vector3f position) {
+        return getDensity(chunkKey(position));
+    }
+
+    @ReceiveEvent(components = WorldComponent.class)
+    public void onChunkLoaded(OnChunkLoaded event, EntityRef worldEntity) {
+        if (crystalFamily == null) {
+            return;
+        }
+        int chunkX = event.getChunkPos().x();
+        int chunkY = event.getChunkPos().y();
+        int chunkZ = event.getChunkPos().z();
+        Chunk chunk = chunkProvider.getChunk(chunkX, chunkY, chunkZ);
+        if (chunk == null) {
+            return;
+        }
+        int count = 0;
+        for (int y = 0; y < ChunkConstants.SIZE_Y; y++) {
+            for (int z = 0; z < ChunkConstants.SIZE_Z; z++) {
+                for (int x = 0; x < ChunkConstants.SIZE_X; x++) {
+                    if (isCrystal(chunk.getBlock(x, y, z))) {
+                        count++;
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            setDensity(chunkKey(chunkX, chunkY, chunkZ), count);
+        }
+    }
+
+    @ReceiveEvent(components = WorldComponent.class)
+    public void onChunkUnloading(BeforeChunkUnload event, EntityRef worldEntity) {
+        density.remove(chunkKey(event.getChunkPos().x(), event.getChunkPos().y(), event.getChunkPos().z()));
+    }
+
+    @ReceiveEvent(components = BlockComponent.class)
+    public void onBlockChanged(OnChangedBlock event, EntityRef blockEntity) {
+        boolean wasCrystal = isCrystal(event.getOldType());
+        boolean isCrystal = isCrystal(event.getNewType());
+        if (wasCrystal == isCrystal) {
+            return;
+        }
+        long key = chunkKey(
+                Math.floorDiv(event.getBlockPosition().x(), ChunkConstants.SIZE_X),
+                Math.floorDiv(event.getBlockPosition().y(), ChunkConstants.SIZE_Y),
+                Math.floorDiv(event.getBlockPosition().z(), ChunkConstants.SIZE_Z));
+        setDensity(key, getDensity(key) + (isCrystal ? 1 : -1));
+    }
+
+    @ReceiveEvent(components = {ManaComponent.class, LocationComponent.class})
+    public void onManaEntityActivated(OnActivatedComponent event, EntityRef entity) {
+        onMoved(entity);
+    }
+
+    @ReceiveEvent(components = {ManaComponent.class, LocationComponent.class})
+    public void onManaEntityMoved(OnChangedComponent event, EntityRef entity) {
+        onMoved(entity);
+    }
+
+    @ReceiveEvent(components = {ManaComponent.class, LocationComponent.class})
+    public void onManaEntityDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        Long key = entityChunks.remove(entity);
+        if (key != null) {
+            removeFromChunk(key, entity);
+        }
+    }
+
+    private void onMoved(EntityRef entity) {
+        Vector3f position = entity.getComponent(LocationComponent.class).getWorldPosition();
+        if (Float.isNaN(position.x)) {
+            return;
+        }
+        long key = chunkKey(position);
+        Long previous = entityChunks.put(entity, key);
+        if (previous == null || previous != key) {
+            if (previous != null) {
+                removeFromChunk(previous, entity);
+            }
+            chunkEntities.computeIfAbsent(key, k -> new HashSet<>()).add(entity);
+            updateRegen(entity, getDensity(key));
+        }
+    }
+
+    private void removeFromChunk(long key, EntityRef entity) {
+        Set<EntityRef> entities = chunkEntities.get(key);
+        if (entities != null && entities.remove(entity) && entities.isEmpty()) {
+            chunkEntities.remove(key);
+        }
+    }
+
+    private void setDensity(long key, int count) {
+        if (count > 0) {
+            density.put(key, count);
+        } else {
+            density.remove(key);
+        }
+        Set<EntityRef> entities = chunkEntities.get(key);
+        if (entities != null) {
+            for (EntityRef entity : entities) {
+                updateRegen(entity, count);
+            }
+        }
+    }
+
+    private int getDensity(long key) {
+        Integer count = density.get(key);
+        return count != null ? count : 0;
+    }
+
+    private void updateRegen(EntityRef entity, int crystals) {
+        ManaComponent mana = entity.getComponent(ManaComponent.class);
+        if (mana == null) {
+            return;
+        }
+        float regenRate = mana.baseRegenRate + Math.min(MAX_BONUS, crystals * REGEN_PER_CRYSTAL);
+        if (regenRate != mana.regenRate) {
+            entity.send(new ChangeManaRegenEvent(regenRate));
+        }
+    }
+
+    private boolean isCrystal(Block block) {
+        return block != null && crystalFamily != null && block.getBlockFamily() == crystalFamily;
+    }
+
+    private static long chunkKey(Vector3f position) {
+        return chunkKey(
+                Math.floorDiv((int) Math.floor(position.x), ChunkConstants.SIZE_X),
+                Math.floorDiv((int) Math.floor(position.y), ChunkConstants.SIZE_Y),
+                Math.floorDiv((int) Math.floor(position.z), ChunkConstants.SIZE_Z));
+    }
+
+    private static long chunkKey(int chunkX, int chunkY, int chunkZ) {
+        return ((long) (chunkX & 0x1FFFFF) << 42) | ((long) (chunkY & 0x1FFFFF) << 21) | (chunkZ & 0x1FFFFF);
+    }
+}
@@ -0,0 +1,24 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.mana;
+
+import org.terasology.entitySystem.event.Event;
+
+/**
+ * Sets how fast an entity regenerates mana. The mana regenerated at the old rate is kept.
+ */
+public class ChangeManaRegenEvent implements Event {
+
+    /**
+     * Mana regained per second
+     */
+    private float regenRate;
+
+    public ChangeManaRegenEvent(float regenRate) {
+        this.regenRate = regenRate;
+    }
+
+    public float getRegenRate() {
+        return regenRate;
+    }
+}
@@ -5,14 +5,21 @@ package org.terasology.wizardbattles.mana;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.players.LocalPlayer;
+import org.terasology.network.ClientComponent;
 import org.terasology.registry.In;
 import org.terasology.rendering.nui.NUIManager;
 
 /**
- * Handles client-side functionality for Hunger features.
+ * Handles client-side functionality for Mana features.
  */
 @RegisterSystem(RegisterMode.CLIENT)
 public class ManaClientSystem extends BaseComponentSystem {
@@ -20,18 +27,63 @@ public class ManaClientSystem extends BaseComponentSystem {
      * The logger for debugging to the log files.
      */
     private static final Logger logger = LoggerFactory.getLogger(ManaClientSystem.class);
+    private static final String MANA_HUD = "WizardBattles:Mana";
 
     @In
     private NUIManager nuiManager;
 
+    @In
+    private LocalPlayer localPlayer;
+
     @In
     private Time time;
 
+    private ManaWindow manaWindow;
+
     /**
-     * Adds the hunger bar to the player's HUD.
+     * Adds the mana bar to the player's HUD.
      */
     @Override
     public void preBegin() {
-        nuiManager.getHUD().addHUDElement("WizardBattles:Mana");
+        nuiManager.getHUD().addHUDElement(MANA_HUD);
+        manaWindow = nuiManager.getHUD().getHUDElement(MANA_HUD, ManaWindow.class);
+        refreshHud();
+    }
+
+    @ReceiveEvent(components = ManaComponent.class)
+    public void onManaActivated(OnActivatedComponent event, EntityRef entity, ManaComponent mana) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && manaWindow != null) {
+            manaWindow.setMana(mana);
+        }
+    }
+
+    @ReceiveEvent(components = ManaComponent.class)
+    public void onManaChanged(OnChangedComponent event, EntityRef entity, ManaComponent mana) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && manaWindow != null) {
+            manaWindow.setMana(mana);
+        }
+    }
+
+    @ReceiveEvent(components = ManaComponent.class)
+    public void onManaDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && manaWindow != null) {
+            manaWindow.setMana(null);
+        }
+    }
+
+    /**
+     * Picks up the new character when the local player respawns.
+     */
+    @ReceiveEvent(components = ClientComponent.class)
+    public void onClientChanged(OnChangedComponent event, EntityRef client) {
+        if (client.equals(localPlayer.getClientEntity())) {
+            refreshHud();
+        }
+    }
+
+    private void refreshHud() {
+        if (manaWindow != null) {
+            manaWindow.setMana(localPlayer.getCharacterEntity().getComponent(ManaComponent.class));
+        }
     }
 }
@@ -3,13 +3,49 @@
 package org.terasology.wizardbattles.mana;
 
 import org.terasology.entitySystem.Component;
+import org.terasology.network.FieldReplicateType;
+import org.terasology.network.Replicate;
 
 /**
  * Component for entities that can accumulate magical power (Mana).
+ * <p>
+ * Mana regenerates continuously, but is only stored as of {@link #lastUpdateTime}; the amount an entity has now is
+ * worked out when it is read, with {@link ManaUtil#getCurrent}. The component only changes when mana is spent, the
+ * rate of regeneration changes, or the entity starts or stops regenerating. Only living characters regenerate.
+ * <p>
+ * Mana is only replicated to the entity's owner; other players are not sent it at all.
  */
 public class ManaComponent implements Component {
 
+    @Replicate(FieldReplicateType.SERVER_TO_OWNER)
     public int maximum = 100;
-    public int current;
-    public int regenRate = 3;
+
+    /**
+     * The mana the entity had at {@link #lastUpdateTime}
+     */
+    @Replicate(FieldReplicateType.SERVER_TO_OWNER)
+    public float current;
+
+    /**
+     * The game time, in milliseconds, at which {@link #current} was last brought up to date
+     */
+    @Replicate(FieldReplicateType.SERVER_TO_OWNER)
+    public long lastUpdateTime;
+
+    /**
+     * Mana regained per second, including any bonuses
+     */
+    @Replicate(FieldReplicateType.SERVER_TO_OWNER)
+    public float regenRate = 1f;
+
+    /**
+     * Whether mana is regenerating, which it does only while the entity is a living character
+     */
+    @Replicate(FieldReplicateType.SERVER_TO_OWNER)
+    public boolean regenerating;
+
+    /**
+     * Mana regained per second without bonuses, such as from nearby mana crystals
+     */
+    public float baseRegenRate = 1f;
 }
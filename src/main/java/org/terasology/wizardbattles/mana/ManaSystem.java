@@ -4,75 +4,110 @@ package org.terasology.wizardbattles.mana;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.logic.characters.AliveCharacterComponent;
-import org.terasology.logic.delay.DelayManager;
-import org.terasology.logic.delay.PeriodicActionTriggeredEvent;
 import org.terasology.logic.players.event.OnPlayerSpawnedEvent;
 import org.terasology.registry.In;
-import org.terasology.world.WorldComponent;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Keeps mana up to date. Regeneration is not applied on a timer: {@link ManaUtil#getCurrent} works it out from the
+ * time passed whenever mana is read, so components are only saved when mana is spent or its regeneration rate
+ * changes.
+ * <p>
+ * Those changes are made to the component straight away, so they can be read at once, but the component is saved
+ * once per update, so an entity spending mana several times in one tick is only replicated once.
+ * <p>
+ * As with the periodic regeneration this replaced, only living characters regenerate: mana is settled and stops
+ * regenerating when an entity loses its AliveCharacterComponent, and starts again from that amount when it gains one.
+ */
 @RegisterSystem
-public class ManaSystem extends BaseComponentSystem {
+public class ManaSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(ManaSystem.class);
-    private static final String MANA_REGEN_ACTION_ID = "ManaRegen";
-    private static final long MANA_REGEN_INTERVAL = 3000L;
 
     @In
-    private EntityManager entityManager;
+    private Time time;
 
-    @In
-    private DelayManager delayManager;
+    /**
+     * Entities whose ManaComponent has changed since the last update
+     */
+    private final Set<EntityRef> changed = new LinkedHashSet<>();
+
+    @Override
+    public void shutdown() {
+        changed.clear();
+    }
 
-    public void postBegin() {
-        boolean processedOnce = false;
-        for (EntityRef entity : entityManager.getEntitiesWith(WorldComponent.class)) {
-            if (!processedOnce) {
-                delayManager.addPeriodicAction(entity, MANA_REGEN_ACTION_ID, MANA_REGEN_INTERVAL, MANA_REGEN_INTERVAL);
-                processedOnce = true;
-            } else {
-                logger.warn("More than one entity with WorldComponent found");
+    @Override
+    public void update(float delta) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        for (EntityRef entity : changed) {
+            ManaComponent manaComponent = entity.getComponent(ManaComponent.class);
+            if (manaComponent != null) {
+                entity.saveComponent(manaComponent);
             }
         }
+        changed.clear();
     }
 
     @ReceiveEvent(components = ManaComponent.class)
     public void onPlayerSpawn(OnPlayerSpawnedEvent event, EntityRef player) {
         ManaComponent manaComponent = player.getComponent(ManaComponent.class);
         manaComponent.current = manaComponent.maximum;
+        manaComponent.lastUpdateTime = time.getGameTimeInMs();
         logger.info("Initialising player mana to {}", manaComponent.current);
         player.saveComponent(manaComponent);
     }
 
-    @ReceiveEvent
-    public void onPeriodicActionTriggered(PeriodicActionTriggeredEvent event, EntityRef unusedEntity) {
-        if (event.getActionId().equals(MANA_REGEN_ACTION_ID)) {
-            for (EntityRef entity : entityManager.getEntitiesWith(ManaComponent.class, AliveCharacterComponent.class)) {
-                ManaComponent manaComponent = entity.getComponent(ManaComponent.class);
-                if (manaComponent.current < manaComponent.maximum) {
-                    int regenRate = manaComponent.regenRate;
-                    int amount = Math.min(regenRate, manaComponent.maximum - manaComponent.current);
-                    if (amount < 0) {
-                        amount = 0;
-                    }
-                    if (amount > 0) {
-                        manaComponent.current += amount;
-                        entity.saveComponent(manaComponent);
-                    }
-                }
-            }
-        }
+    /**
+     * Starts regeneration when the entity becomes a living character or is loaded as one.
+     */
+    @ReceiveEvent(components = {ManaComponent.class, AliveCharacterComponent.class}, netFilter = RegisterMode.AUTHORITY)
+    public void onAlive(OnActivatedComponent event, EntityRef entity, ManaComponent manaComponent) {
+        ManaUtil.settle(manaComponent, time.getGameTimeInMs());
+        manaComponent.regenerating = true;
+        changed.add(entity);
+    }
+
+    /**
+     * Stops regeneration when the entity dies or is unloaded. The component is changed in place, as it may be about to
+     * be stored; it is saved on the next update if the entity is still there.
+     */
+    @ReceiveEvent(components = {ManaComponent.class, AliveCharacterComponent.class}, netFilter = RegisterMode.AUTHORITY)
+    public void onNoLongerAlive(BeforeDeactivateComponent event, EntityRef entity, ManaComponent manaComponent) {
+        ManaUtil.settle(manaComponent, time.getGameTimeInMs());
+        manaComponent.regenerating = false;
+        changed.add(entity);
     }
 
     @ReceiveEvent(components = ManaComponent.class)
     public void onConsumeMana(ConsumeManaEvent event, EntityRef player) {
         ManaComponent manaComponent = player.getComponent(ManaComponent.class);
+        ManaUtil.settle(manaComponent, time.getGameTimeInMs());
         manaComponent.current -= event.getAmount();
-        player.saveComponent(manaComponent);
+        changed.add(player);
+    }
+
+    @ReceiveEvent(components = ManaComponent.class)
+    public void onChangeManaRegen(ChangeManaRegenEvent event, EntityRef entity) {
+        ManaComponent manaComponent = entity.getComponent(ManaComponent.class);
+        if (manaComponent.regenRate != event.getRegenRate()) {
+            ManaUtil.settle(manaComponent, time.getGameTimeInMs());
+            manaComponent.regenRate = event.getRegenRate();
+            changed.add(entity);
+        }
     }
 }
@@ -3,23 +3,57 @@
 package org.terasology.wizardbattles.mana;
 
 import org.terasology.entitySystem.entity.EntityRef;
-import org.terasology.entitySystem.prefab.Prefab;
-import org.terasology.wizardbattles.spell.SpellComponent;
+import org.terasology.wizardbattles.spell.SpellDefinition;
 
 public class ManaUtil {
 
-    public static boolean hasSufficient(Prefab prefab, EntityRef entity) {
-        SpellComponent spellComponent = prefab.getComponent(SpellComponent.class);
-        return spellComponent != null && hasSufficient(spellComponent.manaCost, entity);
+    /**
+     * @param mana the component
+     * @param now the current game time in milliseconds
+     * @return the mana the entity has now, including what it has regenerated since the component was last updated
+     */
+    public static float getCurrent(ManaComponent mana, long now) {
+        if (!mana.regenerating || mana.current >= mana.maximum || now <= mana.lastUpdateTime) {
+            return mana.current;
+        }
+        float regenerated = mana.regenRate * (now - mana.lastUpdateTime) / 1000f;
+        return Math.min(mana.maximum, mana.current + regenerated);
     }
 
-    public static boolean hasSufficient(int required, EntityRef entity) {
+    /**
+     * @return the mana regained per second at the moment, 0 if the entity is not regenerating
+     */
+    public static float getRegenRate(ManaComponent mana) {
+        return mana.regenerating ? mana.regenRate : 0f;
+    }
+
+    /**
+     * @return the mana the entity has now, or 0 if it has no ManaComponent
+     */
+    public static float getCurrent(EntityRef entity, long now) {
         ManaComponent manaComponent = entity.getComponent(ManaComponent.class);
-        return manaComponent != null && manaComponent.current > required;
+        return manaComponent != null ? getCurrent(manaComponent, now) : 0;
+    }
+
+    public static boolean hasSufficient(SpellDefinition spell, EntityRef entity, long now) {
+        return hasSufficient(spell.getManaCost(), entity, now);
+    }
+
+    public static boolean hasSufficient(int required, EntityRef entity, long now) {
+        ManaComponent manaComponent = entity.getComponent(ManaComponent.class);
+        return manaComponent != null && getCurrent(manaComponent, now) > required;
+    }
+
+    /**
+     * Folds the mana regenerated so far into {@link ManaComponent#current}, so that the regeneration rate can be
+     * changed or mana spent from an up to date value. The caller is responsible for saving the component.
+     */
+    public static void settle(ManaComponent mana, long now) {
+        mana.current = getCurrent(mana, now);
+        mana.lastUpdateTime = now;
     }
 
-    public static void sendConsumeEvent(EntityRef entity, Prefab prefab) {
-        SpellComponent spellComponent = prefab.getComponent(SpellComponent.class);
-        entity.send(new ConsumeManaEvent(spellComponent.manaCost));
+    public static void sendConsumeEvent(EntityRef entity, SpellDefinition spell) {
+        entity.send(new ConsumeManaEvent(spell.getManaCost()));
     }
 }
@@ -2,38 +2,55 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.wizardbattles.mana;
 
-import org.terasology.entitySystem.entity.EntityRef;
-import org.terasology.logic.players.LocalPlayer;
+import org.terasology.engine.Time;
 import org.terasology.nui.databinding.Binding;
 import org.terasology.nui.databinding.ReadOnlyBinding;
 import org.terasology.nui.widgets.UIText;
 import org.terasology.registry.CoreRegistry;
 import org.terasology.rendering.nui.layers.hud.CoreHudWidget;
+import org.terasology.wizardbattles.hud.LocalTimeline;
 
-
+/**
+ * Shows the local player's mana. The {@link ManaClientSystem} passes in the player's ManaComponent whenever it
+ * changes, and the regeneration from then on is followed on a {@link LocalTimeline}. The text is only rebuilt when the
+ * mana shown reaches another whole number.
+ */
 public class ManaWindow extends CoreHudWidget {
 
+    private final StringBuilder builder = new StringBuilder();
+    private LocalTimeline mana;
+    private int maximum;
+    private boolean visible;
+    private int shownCurrent = -1;
+    private int shownMaximum = -1;
+    private String text = "";
+
     @Override
     public void initialise() {
+        mana = new LocalTimeline(CoreRegistry.get(Time.class));
         UIText uiText = find("mana", UIText.class);
         uiText.bindVisible(new ReadOnlyBinding<Boolean>() {
             @Override
             public Boolean get() {
-                EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                return character != null && character.hasComponent(ManaComponent.class);
+                return visible;
             }
         });
         uiText.bindText(
                 new Binding<String>() {
                     @Override
                     public String get() {
-                        EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                        if (character == null || !character.hasComponent(ManaComponent.class)) {
+                        if (!visible) {
                             return "";
                         }
-
-                        ManaComponent mana = character.getComponent(ManaComponent.class);
-                        return mana.current + " / " + mana.maximum;
+                        int current = (int) Math.min(maximum, mana.get());
+                        if (current != shownCurrent || maximum != shownMaximum) {
+                            shownCurrent = current;
+                            shownMaximum = maximum;
+                            builder.setLength(0);
+                            builder.append(current).append(" / ").append(maximum);
+                            text = builder.toString();
+                        }
+                        return text;
                     }
 
                     @Override
@@ -41,4 +58,17 @@ public class ManaWindow extends CoreHudWidget {
                     }
                 });
     }
+
+    /**
+     * @param manaComponent the local player's mana, or null to hide the window
+     */
+    public void setMana(ManaComponent manaComponent) {
+        visible = manaComponent != null;
+        if (visible) {
+            maximum = manaComponent.maximum;
+            mana.set(manaComponent.current, ManaUtil.getRegenRate(manaComponent), manaComponent.lastUpdateTime);
+        } else {
+            mana.reset();
+        }
+    }
 }
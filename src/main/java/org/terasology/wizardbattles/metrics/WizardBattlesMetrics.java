@@ -0,0 +1,160 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.paths.PathManager;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.registry.Share;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for what the module is doing, cheap enough to leave switched on. Everything is recorded
+ * with striped counters, so recording never takes a lock.
+ * <p>
+ * The current values can be shown with the <code>wizardMetrics</code> command and written to a CSV file in the
+ * home directory with <code>dumpWizardMetrics</code>.
+ */
+@RegisterSystem
+@Share(WizardBattlesMetrics.class)
+public class WizardBattlesMetrics extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(WizardBattlesMetrics.class);
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    private final LongAdder castsStarted = new LongAdder();
+    private final LongAdder castsCompleted = new LongAdder();
+    private final LongAdder castsRejectedForMana = new LongAdder();
+    private final LongAdder projectilesSpawned = new LongAdder();
+    private final LongAdder hitscansResolved = new LongAdder();
+
+    private final LatencyHistogram castToSpawnLatency = new LatencyHistogram("castToSpawnLatency");
+    private final LatencyHistogram castingUpdateTime = new LatencyHistogram("castingUpdateTime");
+
+    public void castStarted() {
+        castsStarted.increment();
+    }
+
+    public void castCompleted() {
+        castsCompleted.increment();
+    }
+
+    public void castRejectedForMana() {
+        castsRejectedForMana.increment();
+    }
+
+    public void projectilesSpawned(int count) {
+        projectilesSpawned.add(count);
+    }
+
+    public void hitscanResolved() {
+        hitscansResolved.increment();
+    }
+
+    public long getCastsStarted() {
+        return castsStarted.sum();
+    }
+
+    public long getCastsCompleted() {
+        return castsCompleted.sum();
+    }
+
+    public long getCastsRejectedForMana() {
+        return castsRejectedForMana.sum();
+    }
+
+    public long getProjectilesSpawned() {
+        return projectilesSpawned.sum();
+    }
+
+    /**
+     * Time from a BeginCastingEvent being accepted to the spell's projectiles being spawned.
+     */
+    public LatencyHistogram getCastToSpawnLatency() {
+        return castToSpawnLatency;
+    }
+
+    /**
+     * Time spent in each CastingSystem update.
+     */
+    public LatencyHistogram getCastingUpdateTime() {
+        return castingUpdateTime;
+    }
+
+    @Command(shortDescription = "Shows the WizardBattles cast, mana and spawn metrics",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String wizardMetrics() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("castsStarted: ").append(castsStarted.sum()).append('\n');
+        builder.append("castsCompleted: ").append(castsCompleted.sum()).append('\n');
+        builder.append("castsRejectedForMana: ").append(castsRejectedForMana.sum()).append('\n');
+        builder.append("projectilesSpawned: ").append(projectilesSpawned.sum()).append('\n');
+        builder.append("hitscansResolved: ").append(hitscansResolved.sum()).append('\n');
+        for (LatencyHistogram histogram : histograms()) {
+            builder.append(String.format("%s: count %d, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    histogram.getName(), histogram.getCount(), histogram.getMean() / NANOS_PER_MS,
+                    histogram.getPercentile(0.5) / NANOS_PER_MS, histogram.getPercentile(0.99) / NANOS_PER_MS,
+                    histogram.getMax() / NANOS_PER_MS));
+        }
+        return builder.toString();
+    }
+
+    @Command(shortDescription = "Writes the WizardBattles metrics to a CSV file in the home directory",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String dumpWizardMetrics() {
+        Path file = PathManager.getInstance().getHomePath()
+                .resolve("wizardbattles-metrics-" + System.currentTimeMillis() + ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("metric,type,count,meanNs,p50Ns,p99Ns,maxNs");
+            writer.newLine();
+            writeCounter(writer, "castsStarted", castsStarted);
+            writeCounter(writer, "castsCompleted", castsCompleted);
+            writeCounter(writer, "castsRejectedForMana", castsRejectedForMana);
+            writeCounter(writer, "projectilesSpawned", projectilesSpawned);
+            writeCounter(writer, "hitscansResolved", hitscansResolved);
+            for (LatencyHistogram histogram : histograms()) {
+                writer.write(histogram.getName() + ",histogram," + histogram.getCount() + "," + histogram.getMean()
+                        + "," + histogram.getPercentile(0.5) + "," + histogram.getPercentile(0.99) + ","
+                        + histogram.getMax());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write metrics to {}", file, e);
+            return "Failed to write metrics: " + e.getMessage();
+        }
+        return "Metrics written to " + file;
+    }
+
+    @Command(shortDescription = "Resets the WizardBattles metrics",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String resetWizardMetrics() {
+        castsStarted.reset();
+        castsCompleted.reset();
+        castsRejectedForMana.reset();
+        projectilesSpawned.reset();
+        hitscansResolved.reset();
+        for (LatencyHistogram histogram : histograms()) {
+            histogram.reset();
+        }
+        return "Metrics reset";
+    }
+
+    private LatencyHistogram[] histograms() {
+        return new LatencyHistogram[]{castToSpawnLatency, castingUpdateTime};
+    }
+
+    private void writeCounter(BufferedWriter writer, String name, LongAdder counter) throws IOException {
+        writer.write(name + ",counter," + counter.sum() + ",,,,");
+        writer.newLine();
+    }
+}
@@ -0,0 +1,244 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.soak;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.console.commandSystem.annotations.CommandParam;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.utilities.Assets;
+import org.terasology.utilities.random.FastRandom;
+import org.terasology.utilities.random.Random;
+import org.terasology.wizardbattles.casting.BeginCastingEvent;
+import org.terasology.wizardbattles.casting.CastCompletionScheduler;
+import org.terasology.wizardbattles.mana.ManaUtil;
+import org.terasology.wizardbattles.metrics.LatencyHistogram;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
+import org.terasology.wizardbattles.spell.GrimoireSystem;
+import org.terasology.wizardbattles.spell.SpellCooldownSystem;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A soak test for finding how many wizards a server can hold. Spawns scripted bots from the
+ * <code>WizardBattles:soakBot</code> prefab, each of which moves on to the next spell in its grimoire and casts it at a
+ * set rate, going through the same mana, cooldown and casting systems a player's casts do. Only the player's input
+ * is stood in for.
+ * <p>
+ * When the run ends, the time between updates (the server tick), the allocation rate of the game thread and the
+ * number of entities are reported to the log and kept for the <code>wizardSoakReport</code> command.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class SoakTestSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(SoakTestSystem.class);
+    private static final String BOT_PREFAB = "WizardBattles:soakBot";
+    private static final int BOTS_PER_ROW = 32;
+    private static final float BOT_SPACING = 3f;
+    private static final float BOT_HEIGHT = 80f;
+    private static final double NANOS_PER_MS = 1_000_000.0;
+
+    @In
+    private Time time;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private GrimoireSystem grimoires;
+
+    @In
+    private SpellCooldownSystem spellCooldowns;
+
+    @In
+    private WizardBattlesMetrics metrics;
+
+    private final CastCompletionScheduler<EntityRef> castTimer = new CastCompletionScheduler<>();
+    private final Consumer<EntityRef> castNext = this::castNext;
+    private final List<EntityRef> bots = new ArrayList<>();
+    private final Random random = new FastRandom();
+
+    private LatencyHistogram tickTime;
+    private long castIntervalMs;
+    private long endsAt;
+    private long lastTickNanos;
+    private long startNanos;
+    private long startAllocatedBytes;
+    private long startCasts;
+    private long startProjectiles;
+    private long startRejected;
+    private int startEntities;
+    private int peakEntities;
+    private String lastReport = "No soak test has been run";
+
+    @Override
+    public void shutdown() {
+        removeBots();
+    }
+
+    @Command(shortDescription = "Runs a soak test with scripted wizard bots",
+            helpText = "Spawns the given number of bots, each casting the given number of times per second, "
+                    + "and reports tick time, allocation rate and entity counts after the given number of seconds",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String wizardSoak(@CommandParam("bots") int count, @CommandParam("seconds") int seconds,
+                             @CommandParam(value = "castsPerSecond", required = false) Float castsPerSecond) {
+        if (!bots.isEmpty()) {
+            return "A soak test is already running";
+        }
+        float rate = castsPerSecond != null ? castsPerSecond : 1f;
+        if (count <= 0 || seconds <= 0 || rate <= 0) {
+            return "Bots, seconds and casts per second must be positive";
+        }
+        Optional<Prefab> prefab = Assets.getPrefab(BOT_PREFAB);
+        if (!prefab.isPresent()) {
+            return "Missing prefab " + BOT_PREFAB;
+        }
+
+        castIntervalMs = Math.max(1L, (long) (1000 / rate));
+        long now = time.getGameTimeInMs();
+        for (int i = 0; i < count; i++) {
+            Vector3f position = new Vector3f((i % BOTS_PER_ROW) * BOT_SPACING, BOT_HEIGHT,
+                    (i / BOTS_PER_ROW) * BOT_SPACING);
+            EntityRef bot = entityManager.create(prefab.get(), position);
+            bot.setPersistent(false);
+            bots.add(bot);
+            // Spread the first casts over one interval so the bots do not all cast on the same tick
+            castTimer.schedule(bot, now + random.nextInt((int) Math.min(castIntervalMs, Integer.MAX_VALUE)));
+        }
+
+        tickTime = new LatencyHistogram("soakTickTime");
+        endsAt = now + seconds * 1000L;
+        startNanos = System.nanoTime();
+        lastTickNanos = startNanos;
+        startAllocatedBytes = getAllocatedBytes();
+        startCasts = metrics.getCastsStarted();
+        startProjectiles = metrics.getProjectilesSpawned();
+        startRejected = metrics.getCastsRejectedForMana();
+        startEntities = entityManager.getActiveEntityCount();
+        peakEntities = startEntities;
+        return "Started " + count + " bots for " + seconds + " s";
+    }
+
+    @Command(shortDescription = "Stops the running soak test and reports on it",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String stopWizardSoak() {
+        if (bots.isEmpty()) {
+            return "No soak test is running";
+        }
+        finish();
+        return lastReport;
+    }
+
+    @Command(shortDescription = "Shows the report of the last soak test",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String wizardSoakReport() {
+        return lastReport;
+    }
+
+    @Override
+    public void update(float delta) {
+        if (bots.isEmpty()) {
+            return;
+        }
+        long tickNanos = System.nanoTime();
+        tickTime.record(tickNanos - lastTickNanos);
+        lastTickNanos = tickNanos;
+        peakEntities = Math.max(peakEntities, entityManager.getActiveEntityCount());
+
+        long now = time.getGameTimeInMs();
+        if (now >= endsAt) {
+            finish();
+            logger.info(lastReport);
+            return;
+        }
+        castTimer.pollDue(now, castNext);
+    }
+
+    /**
+     * Does what a player pressing the next-spell and cast buttons would.
+     */
+    private void castNext(EntityRef bot) {
+        if (!bot.exists()) {
+            return;
+        }
+        castTimer.schedule(bot, time.getGameTimeInMs() + castIntervalMs);
+
+        grimoires.selectNext(bot);
+        SpellDefinition spell = grimoires.getSelected(bot);
+        if (spell == null || !spellCooldowns.isReady(bot, spell)) {
+            return;
+        }
+        if (ManaUtil.hasSufficient(spell, bot, time.getGameTimeInMs())) {
+            ManaUtil.sendConsumeEvent(bot, spell);
+            Vector3f direction = new Vector3f(random.nextFloat(-1, 1), random.nextFloat(-0.2f, 0.2f),
+                    random.nextFloat(-1, 1));
+            bot.send(new BeginCastingEvent(spell.getId(), direction, -1));
+        } else {
+            metrics.castRejectedForMana();
+        }
+    }
+
+    private void finish() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        long allocated = getAllocatedBytes();
+        String allocationRate = allocated >= 0 && startAllocatedBytes >= 0
+                ? String.format("%.1f MB/s", (allocated - startAllocatedBytes) / seconds / (1024 * 1024))
+                : "unavailable";
+        int botCount = bots.size();
+        int endEntities = entityManager.getActiveEntityCount();
+        lastReport = String.format("Soak test: %d bots for %.1f s%n"
+                        + "tick: count %d, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n"
+                        + "allocation rate (game thread): %s%n"
+                        + "entities: %d at start, %d peak, %d at end%n"
+                        + "casts started %d, rejected for mana %d, projectiles spawned %d",
+                botCount, seconds,
+                tickTime.getCount(), tickTime.getPercentile(0.5) / NANOS_PER_MS,
+                tickTime.getPercentile(0.99) / NANOS_PER_MS, tickTime.getMax() / NANOS_PER_MS,
+                allocationRate,
+                startEntities, peakEntities, endEntities,
+                metrics.getCastsStarted() - startCasts, metrics.getCastsRejectedForMana() - startRejected,
+                metrics.getProjectilesSpawned() - startProjectiles);
+        removeBots();
+    }
+
+    private void removeBots() {
+        for (EntityRef bot : bots) {
+            if (bot.exists()) {
+                bot.destroy();
+            }
+        }
+        bots.clear();
+        castTimer.clear();
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 if the JVM does not say
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
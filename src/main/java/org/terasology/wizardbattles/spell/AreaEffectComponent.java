@@ -0,0 +1,28 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * Added to a spell prefab to damage everything around the caster, or in a cone in front of them, when it is cast.
+ */
+public class AreaEffectComponent implements Component {
+
+    /**
+     * How far from the caster the effect reaches
+     */
+    public float radius = 5;
+
+    /**
+     * The angle between the direction of the cast and the edge of the effect; 180 reaches all the way round
+     */
+    public float halfAngleDegrees = 180;
+
+    public int damage = 10;
+
+    /**
+     * Whether members of the caster's own faction are hit too
+     */
+    public boolean affectsOwnFaction;
+}
@@ -0,0 +1,94 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The spells in a {@link GrimoireComponent}, resolved to their definitions. Spells are numbered by their index in the
+ * grimoire, which is what the {@link SpellSelectionComponent} stores, and can be looked up by index or by spell id in
+ * constant time.
+ */
+public final class Grimoire {
+
+    public static final Grimoire EMPTY = new Grimoire(new SpellDefinition[0], new int[0]);
+
+    private final SpellDefinition[] spells;
+    /**
+     * The index of each spell in the grimoire, by spell id, or -1 if it is not in the grimoire
+     */
+    private final int[] indexById;
+
+    private Grimoire(SpellDefinition[] spells, int[] indexById) {
+        this.spells = spells;
+        this.indexById = indexById;
+    }
+
+    /**
+     * Resolves the given spell urns, leaving out any that do not name a spell and any repeats.
+     */
+    static Grimoire compile(List<String> knownSpells, SpellRegistry spellRegistry) {
+        if (knownSpells == null || knownSpells.isEmpty()) {
+            return EMPTY;
+        }
+        SpellDefinition[] spells = new SpellDefinition[knownSpells.size()];
+        int[] indexById = new int[spellRegistry.size()];
+        Arrays.fill(indexById, -1);
+        int count = 0;
+        for (String urn : knownSpells) {
+            SpellDefinition spell = spellRegistry.get(urn);
+            if (spell != null && indexById[spell.getId()] < 0) {
+                indexById[spell.getId()] = count;
+                spells[count++] = spell;
+            }
+        }
+        return new Grimoire(Arrays.copyOf(spells, count), indexById);
+    }
+
+    /**
+     * @return the number of spells in the grimoire
+     */
+    public int size() {
+        return spells.length;
+    }
+
+    /**
+     * @return the spell at the given index, or null if there is none
+     */
+    public SpellDefinition get(int index) {
+        return index >= 0 && index < spells.length ? spells[index] : null;
+    }
+
+    /**
+     * @return the index of the spell in the grimoire, or -1 if it is not in it
+     */
+    public int indexOf(SpellDefinition spell) {
+        int id = spell.getId();
+        return id >= 0 && id < indexById.length ? indexById[id] : -1;
+    }
+
+    public boolean knows(SpellDefinition spell) {
+        return indexOf(spell) >= 0;
+    }
+
+    /**
+     * @return the index after the given one, wrapping around to the first; the first if nothing is selected
+     */
+    public int next(int index) {
+        if (spells.length == 0) {
+            return -1;
+        }
+        return index < 0 || index >= spells.length - 1 ? 0 : index + 1;
+    }
+
+    /**
+     * @return the index before the given one, wrapping around to the last; the last if nothing is selected
+     */
+    public int previous(int index) {
+        if (spells.length == 0) {
+            return -1;
+        }
+        return index <= 0 || index >= spells.length ? spells.length - 1 : index - 1;
+    }
+}
@@ -10,6 +10,8 @@ import java.util.List;
 /**
  * <em>Grimoire</em> is an old term for a "book of spells". This component represents all of the spells that the
  * entity (player or NPC) has learned.
+ * <p>
+ * The {@link GrimoireSystem} resolves the list into a {@link Grimoire} for use at run time.
  */
 public class GrimoireComponent implements Component {
 
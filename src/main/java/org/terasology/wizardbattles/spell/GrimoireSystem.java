@@ -0,0 +1,119 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link Grimoire} of each entity with a {@link GrimoireComponent}, compiled on first use and again when
+ * the component changes or the spells are recompiled, and looks after spell selection.
+ */
+@RegisterSystem
+@Share(GrimoireSystem.class)
+public class GrimoireSystem extends BaseComponentSystem {
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    private final Map<EntityRef, Grimoire> grimoires = new HashMap<>();
+    private int generation = -1;
+
+    @Override
+    public void shutdown() {
+        grimoires.clear();
+    }
+
+    /**
+     * Recompiles the grimoire, and moves the selection to wherever the selected spell now is. The selection is cleared
+     * if the spell is no longer known, or if the grimoire it was selected from had not been compiled.
+     */
+    @ReceiveEvent(components = GrimoireComponent.class)
+    public void onGrimoireChanged(OnChangedComponent event, EntityRef entity) {
+        Grimoire previous = grimoires.remove(entity);
+        SpellSelectionComponent selection = entity.getComponent(SpellSelectionComponent.class);
+        if (selection == null || selection.index < 0) {
+            return;
+        }
+        SpellDefinition selected = previous != null && generation == spellRegistry.getGeneration()
+                ? previous.get(selection.index) : null;
+        int index = selected != null ? get(entity).indexOf(selected) : -1;
+        if (index != selection.index) {
+            selection.index = index;
+            entity.saveComponent(selection);
+        }
+    }
+
+    @ReceiveEvent(components = GrimoireComponent.class)
+    public void onGrimoireDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        grimoires.remove(entity);
+    }
+
+    /**
+     * @return the entity's grimoire, empty if it has none
+     */
+    public Grimoire get(EntityRef entity) {
+        if (generation != spellRegistry.getGeneration()) {
+            grimoires.clear();
+            generation = spellRegistry.getGeneration();
+        }
+        Grimoire grimoire = grimoires.get(entity);
+        if (grimoire == null) {
+            GrimoireComponent component = entity.getComponent(GrimoireComponent.class);
+            if (component == null) {
+                return Grimoire.EMPTY;
+            }
+            grimoire = Grimoire.compile(component.knownSpells, spellRegistry);
+            grimoires.put(entity, grimoire);
+        }
+        return grimoire;
+    }
+
+    /**
+     * @return the entity's selected spell, or null if it has not selected one
+     */
+    public SpellDefinition getSelected(EntityRef entity) {
+        SpellSelectionComponent selection = entity.getComponent(SpellSelectionComponent.class);
+        return selection != null ? get(entity).get(selection.index) : null;
+    }
+
+    /**
+     * Selects the spell at the given index in the entity's grimoire, if there is one.
+     *
+     * @return true if the selection changed
+     */
+    public boolean select(EntityRef entity, int index) {
+        SpellSelectionComponent selection = entity.getComponent(SpellSelectionComponent.class);
+        if (selection == null || get(entity).get(index) == null || selection.index == index) {
+            return false;
+        }
+        selection.index = index;
+        entity.saveComponent(selection);
+        return true;
+    }
+
+    /**
+     * Selects the next spell in the entity's grimoire, wrapping around to the first.
+     */
+    public boolean selectNext(EntityRef entity) {
+        SpellSelectionComponent selection = entity.getComponent(SpellSelectionComponent.class);
+        return selection != null && select(entity, get(entity).next(selection.index));
+    }
+
+    /**
+     * Selects the previous spell in the entity's grimoire, wrapping around to the last.
+     */
+    public boolean selectPrevious(EntityRef entity) {
+        SpellSelectionComponent selection = entity.getComponent(SpellSelectionComponent.class);
+        return selection != null && select(entity, get(entity).previous(selection.index));
+    }
+}
@@ -0,0 +1,24 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.entitySystem.prefab.Prefab;
+
+/**
+ * Added to a spell prefab to make it strike instantly along the caster's aim, without launching a projectile.
+ */
+public class HitscanComponent implements Component {
+
+    /**
+     * How far the spell reaches
+     */
+    public float range = 50;
+
+    public int damage = 5;
+
+    /**
+     * A visual effect shown on clients where the spell strikes, or null for none
+     */
+    public Prefab impactEffect;
+}
@@ -18,13 +18,14 @@ public class SpellCastEvent implements Event {
     private Vector3f hitPosition;
     private Vector3f hitNormal;
     private int activationId;
+    private int spellId = -1;
     private Prefab spellPrefab;
 
     public SpellCastEvent() {
 
     }
 
-    public SpellCastEvent(ActivateEvent info, Prefab prefab) {
+    public SpellCastEvent(ActivateEvent info, SpellDefinition spell) {
         instigator = info.getInstigator();
         target = info.getTarget();
         origin = JomlUtil.from(info.getOrigin());
@@ -32,7 +33,17 @@ public class SpellCastEvent implements Event {
         hitPosition = JomlUtil.from(info.getHitPosition());
         hitNormal = JomlUtil.from(info.getHitNormal());
         activationId = info.getActivationId();
-        spellPrefab = prefab;
+        spellId = spell.getId();
+        spellPrefab = spell.getPrefab();
+    }
+
+    public SpellCastEvent(EntityRef instigator, Vector3f origin, Vector3f direction, SpellDefinition spell) {
+        this.instigator = instigator;
+        this.target = EntityRef.NULL;
+        this.origin = origin;
+        this.direction = direction;
+        spellId = spell.getId();
+        spellPrefab = spell.getPrefab();
     }
     
     public EntityRef getInstigator() {
@@ -63,6 +74,13 @@ public class SpellCastEvent implements Event {
         return activationId;
     }
 
+    /**
+     * @return the SpellRegistry id of the spell being cast
+     */
+    public int getSpellId() {
+        return spellId;
+    }
+
     public Prefab getSpellPrefab() {
         return spellPrefab;
     }
@@ -93,6 +111,7 @@ public class SpellCastEvent implements Event {
                 ", hitPosition=" + hitPosition +
                 ", hitNormal=" + hitNormal +
                 ", activationId=" + activationId +
+                ", spellId=" + spellId +
                 ", spellPrefab=" + spellPrefab +
                 '}';
     }
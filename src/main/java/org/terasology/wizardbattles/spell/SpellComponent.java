@@ -8,4 +8,24 @@ public class SpellComponent implements Component {
 
     public int manaCost;
     public long castingTimeMs;
+
+    /**
+     * How long after casting this spell before it can be cast again
+     */
+    public long cooldownMs;
+
+    /**
+     * How long after casting this spell before any spell can be cast
+     */
+    public long globalCooldownMs;
+
+    /**
+     * The number of casts that can be stored up, or 0 if the spell does not use charges
+     */
+    public int maxCharges;
+
+    /**
+     * How long it takes to regain one charge, or 0 if spent charges never come back
+     */
+    public long chargeRechargeMs;
 }
@@ -0,0 +1,38 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.entitySystem.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The saved form of a caster's {@link SpellCooldowns}. Only written when the game is saved; while the game is running
+ * the {@link SpellCooldownSystem} holds the live state. The lists are parallel, one entry per spell with a running
+ * cooldown or spent charges.
+ */
+public class SpellCooldownComponent implements Component {
+
+    /**
+     * Spell prefab urns
+     */
+    public List<String> spells = new ArrayList<>();
+
+    /**
+     * Game time at which each spell's own cooldown ends
+     */
+    public List<Long> nextReady = new ArrayList<>();
+
+    /**
+     * Charges remaining for each spell, -1 meaning full
+     */
+    public List<Integer> charges = new ArrayList<>();
+
+    /**
+     * Game time at which each spell regains its next charge
+     */
+    public List<Long> rechargeAt = new ArrayList<>();
+
+    public long globalReadyAt;
+}
@@ -0,0 +1,207 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.network.NetworkSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tracks spell cooldowns and charges for every caster, and the charges left on spell items.
+ * <p>
+ * The live state is kept in memory, so casting never saves a component. It is written to a
+ * {@link SpellCooldownComponent} on the caster, and back into each {@link SpellItemComponent}, when the game is saved
+ * and when the caster or item is unloaded or destroyed, and read back when a caster with a saved component is loaded.
+ * On the authority a caster is given an empty SpellCooldownComponent the first time it casts, so that there is
+ * somewhere to write its state when it is unloaded. Reloading the spells resets any running cooldowns, as spell ids
+ * may change.
+ */
+@RegisterSystem
+@Share(SpellCooldownSystem.class)
+public class SpellCooldownSystem extends BaseComponentSystem {
+
+    @In
+    private Time time;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private NetworkSystem networkSystem;
+
+    private final Map<EntityRef, SpellCooldowns> cooldowns = new HashMap<>();
+    /**
+     * Charges remaining on spell items that have been used since the last save
+     */
+    private final Map<EntityRef, Integer> itemCharges = new HashMap<>();
+    private int generation = -1;
+
+    @Override
+    public void shutdown() {
+        cooldowns.clear();
+        itemCharges.clear();
+    }
+
+    /**
+     * Writes the in-memory state into components so that it is saved with the entities. Casters whose cooldowns have
+     * all run out are forgotten.
+     */
+    @Override
+    public void preSave() {
+        long now = time.getGameTimeInMs();
+        Iterator<Map.Entry<EntityRef, SpellCooldowns>> iterator = cooldowns.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<EntityRef, SpellCooldowns> entry = iterator.next();
+            EntityRef caster = entry.getKey();
+            SpellCooldowns casterCooldowns = entry.getValue();
+            if (caster.exists() && casterCooldowns.isDirty()) {
+                SpellCooldownComponent component = caster.getComponent(SpellCooldownComponent.class);
+                if (component == null) {
+                    component = new SpellCooldownComponent();
+                }
+                casterCooldowns.writeTo(component, spellRegistry);
+                caster.addOrSaveComponent(component);
+            }
+            if (!casterCooldowns.isActive(now)) {
+                iterator.remove();
+            }
+        }
+
+        for (Map.Entry<EntityRef, Integer> entry : itemCharges.entrySet()) {
+            EntityRef item = entry.getKey();
+            SpellItemComponent spellItemComponent = item.getComponent(SpellItemComponent.class);
+            if (spellItemComponent != null && spellItemComponent.charges != entry.getValue()) {
+                spellItemComponent.charges = entry.getValue();
+                item.saveComponent(spellItemComponent);
+            }
+        }
+        itemCharges.clear();
+    }
+
+    /**
+     * Writes the caster's state into its component before it is unloaded, and forgets it. The component is updated in
+     * place, as it is stored with the entity after this event.
+     */
+    @ReceiveEvent
+    public void onCooldownsDeactivated(BeforeDeactivateComponent event, EntityRef caster,
+                                       SpellCooldownComponent component) {
+        SpellCooldowns casterCooldowns = cooldowns.remove(caster);
+        if (casterCooldowns != null && casterCooldowns.isDirty()) {
+            casterCooldowns.writeTo(component, spellRegistry);
+        }
+    }
+
+    /**
+     * Writes the charges left on a spell item into its component before it is unloaded, and forgets them.
+     */
+    @ReceiveEvent
+    public void onSpellItemDeactivated(BeforeDeactivateComponent event, EntityRef item,
+                                       SpellItemComponent spellItemComponent) {
+        Integer charges = itemCharges.remove(item);
+        if (charges != null) {
+            spellItemComponent.charges = charges;
+        }
+    }
+
+    @ReceiveEvent(components = SpellCooldownComponent.class)
+    public void onCooldownsLoaded(OnActivatedComponent event, EntityRef caster,
+                                  SpellCooldownComponent component) {
+        if (!cooldowns.containsKey(caster)) {
+            getCooldowns(caster).readFrom(component, spellRegistry);
+        }
+    }
+
+    /**
+     * @return true if the caster can cast the spell now, as far as cooldowns and charges are concerned
+     */
+    public boolean isReady(EntityRef caster, SpellDefinition spell) {
+        SpellCooldowns casterCooldowns = findCooldowns(caster);
+        return casterCooldowns == null || casterCooldowns.isReady(spell, time.getGameTimeInMs());
+    }
+
+    /**
+     * Records that the caster has cast the spell, spending a charge and starting its cooldowns.
+     */
+    public void use(EntityRef caster, SpellDefinition spell) {
+        getCooldowns(caster).use(spell, time.getGameTimeInMs());
+    }
+
+    /**
+     * @return the charges the caster has left for the spell, or its maximum if it does not use charges
+     */
+    public int getCharges(EntityRef caster, SpellDefinition spell) {
+        SpellCooldowns casterCooldowns = findCooldowns(caster);
+        return casterCooldowns != null ? casterCooldowns.getCharges(spell, time.getGameTimeInMs())
+                : spell.getMaxCharges();
+    }
+
+    /**
+     * @return how long until the caster can cast the spell again, or 0 if it can be cast now
+     */
+    public long getRemainingCooldown(EntityRef caster, SpellDefinition spell) {
+        SpellCooldowns casterCooldowns = findCooldowns(caster);
+        return casterCooldowns != null ? casterCooldowns.getRemainingCooldown(spell, time.getGameTimeInMs()) : 0;
+    }
+
+    /**
+     * @return the charges left on a spell item, -1 meaning unlimited
+     */
+    public int getItemCharges(EntityRef item, SpellItemComponent spellItemComponent) {
+        Integer charges = itemCharges.get(item);
+        return charges != null ? charges : spellItemComponent.charges;
+    }
+
+    /**
+     * Spends one of a spell item's charges.
+     *
+     * @return false if the item has no charges left
+     */
+    public boolean useItemCharge(EntityRef item, SpellItemComponent spellItemComponent) {
+        int charges = getItemCharges(item, spellItemComponent);
+        if (charges == -1) {
+            // Unlimited charges
+            return true;
+        }
+        if (charges <= 0) {
+            return false;
+        }
+        itemCharges.put(item, charges - 1);
+        return true;
+    }
+
+    private SpellCooldowns findCooldowns(EntityRef caster) {
+        checkGeneration();
+        return cooldowns.get(caster);
+    }
+
+    private SpellCooldowns getCooldowns(EntityRef caster) {
+        checkGeneration();
+        SpellCooldowns casterCooldowns = cooldowns.get(caster);
+        if (casterCooldowns == null) {
+            casterCooldowns = new SpellCooldowns(spellRegistry.size());
+            cooldowns.put(caster, casterCooldowns);
+            if (networkSystem.getMode().isAuthority() && !caster.hasComponent(SpellCooldownComponent.class)) {
+                caster.addComponent(new SpellCooldownComponent());
+            }
+        }
+        return casterCooldowns;
+    }
+
+    private void checkGeneration() {
+        if (generation != spellRegistry.getGeneration()) {
+            cooldowns.clear();
+            generation = spellRegistry.getGeneration();
+        }
+    }
+}
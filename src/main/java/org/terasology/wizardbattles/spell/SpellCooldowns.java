@@ -0,0 +1,173 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import java.util.Arrays;
+
+/**
+ * The cooldowns and charges of one caster, held in arrays indexed by SpellRegistry id.
+ * <p>
+ * Nothing here is updated on a timer. Charges regained since the last look are worked out from the game time
+ * whenever a spell is checked, so checking and using a spell are both constant time.
+ */
+public final class SpellCooldowns {
+
+    private static final int FULL = -1;
+
+    /**
+     * Game time at which each spell's own cooldown ends
+     */
+    private long[] nextReady;
+
+    /**
+     * Charges remaining for each spell, or FULL if it has not been used since its charges were last full
+     */
+    private int[] charges;
+
+    /**
+     * Game time at which each spell regains its next charge, if it is not full
+     */
+    private long[] rechargeAt;
+
+    private long globalReadyAt;
+    private boolean dirty;
+
+    public SpellCooldowns(int spellCount) {
+        nextReady = new long[spellCount];
+        charges = new int[spellCount];
+        rechargeAt = new long[spellCount];
+        Arrays.fill(charges, FULL);
+    }
+
+    /**
+     * @return true if the spell is off cooldown and, if it uses charges, has one left
+     */
+    public boolean isReady(SpellDefinition spell, long now) {
+        int id = spell.getId();
+        ensureCapacity(id + 1);
+        if (now < globalReadyAt || now < nextReady[id]) {
+            return false;
+        }
+        return spell.getMaxCharges() <= 0 || getCharges(spell, now) > 0;
+    }
+
+    /**
+     * Records a cast of the spell, spending a charge and starting its cooldowns. Does not check {@link #isReady}.
+     */
+    public void use(SpellDefinition spell, long now) {
+        int id = spell.getId();
+        ensureCapacity(id + 1);
+        if (spell.getMaxCharges() > 0) {
+            int remaining = getCharges(spell, now);
+            if (remaining == spell.getMaxCharges()) {
+                rechargeAt[id] = now + spell.getChargeRechargeMs();
+            }
+            charges[id] = Math.max(0, remaining - 1);
+        }
+        nextReady[id] = now + spell.getCooldownMs();
+        globalReadyAt = Math.max(globalReadyAt, now + spell.getGlobalCooldownMs());
+        dirty = true;
+    }
+
+    /**
+     * @return the charges the spell has left, or its maximum if it does not use charges
+     */
+    public int getCharges(SpellDefinition spell, long now) {
+        int id = spell.getId();
+        ensureCapacity(id + 1);
+        int max = spell.getMaxCharges();
+        if (charges[id] == FULL || charges[id] >= max) {
+            return max;
+        }
+        long rechargeMs = spell.getChargeRechargeMs();
+        if (rechargeMs > 0 && now >= rechargeAt[id]) {
+            long gained = 1 + (now - rechargeAt[id]) / rechargeMs;
+            if (charges[id] + gained >= max) {
+                charges[id] = FULL;
+                return max;
+            }
+            charges[id] += (int) gained;
+            rechargeAt[id] += gained * rechargeMs;
+        }
+        return charges[id];
+    }
+
+    /**
+     * @return how long until the spell can next be cast, ignoring charges, or 0 if it can be cast now
+     */
+    public long getRemainingCooldown(SpellDefinition spell, long now) {
+        int id = spell.getId();
+        ensureCapacity(id + 1);
+        return Math.max(0, Math.max(globalReadyAt, nextReady[id]) - now);
+    }
+
+    /**
+     * @return true if any cooldown or recharge is still running at the given time
+     */
+    public boolean isActive(long now) {
+        if (now < globalReadyAt) {
+            return true;
+        }
+        for (int i = 0; i < nextReady.length; i++) {
+            if (now < nextReady[i] || charges[i] != FULL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Copies this state into a component for saving, keyed by spell urn so that it survives changes of id.
+     */
+    void writeTo(SpellCooldownComponent component, SpellRegistry spellRegistry) {
+        component.spells.clear();
+        component.nextReady.clear();
+        component.charges.clear();
+        component.rechargeAt.clear();
+        for (int id = 0; id < nextReady.length; id++) {
+            SpellDefinition spell = spellRegistry.get(id);
+            if (spell != null && (nextReady[id] != 0 || charges[id] != FULL)) {
+                component.spells.add(spell.getUrn());
+                component.nextReady.add(nextReady[id]);
+                component.charges.add(charges[id]);
+                component.rechargeAt.add(rechargeAt[id]);
+            }
+        }
+        component.globalReadyAt = globalReadyAt;
+        dirty = false;
+    }
+
+    /**
+     * Restores state saved by {@link #writeTo}. Spells that no longer exist are skipped.
+     */
+    void readFrom(SpellCooldownComponent component, SpellRegistry spellRegistry) {
+        int count = Math.min(component.spells.size(), Math.min(component.nextReady.size(),
+                Math.min(component.charges.size(), component.rechargeAt.size())));
+        for (int i = 0; i < count; i++) {
+            SpellDefinition spell = spellRegistry.get(component.spells.get(i));
+            if (spell != null) {
+                int id = spell.getId();
+                ensureCapacity(id + 1);
+                nextReady[id] = component.nextReady.get(i);
+                charges[id] = component.charges.get(i);
+                rechargeAt[id] = component.rechargeAt.get(i);
+            }
+        }
+        globalReadyAt = component.globalReadyAt;
+        dirty = false;
+    }
+
+    private void ensureCapacity(int spellCount) {
+        if (nextReady.length < spellCount) {
+            int oldLength = nextReady.length;
+            nextReady = Arrays.copyOf(nextReady, spellCount);
+            charges = Arrays.copyOf(charges, spellCount);
+            rechargeAt = Arrays.copyOf(rechargeAt, spellCount);
+            Arrays.fill(charges, oldLength, spellCount, FULL);
+        }
+    }
+}
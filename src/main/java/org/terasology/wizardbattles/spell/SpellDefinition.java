@@ -0,0 +1,335 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import com.google.common.collect.ImmutableList;
+import org.terasology.combatSystem.weaponFeatures.components.LaunchEntityComponent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.logic.common.DisplayNameComponent;
+import org.terasology.math.TeraMath;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.utilities.random.Random;
+
+import java.util.List;
+
+/**
+ * The compiled, immutable form of a spell prefab. Built once by the {@link SpellRegistry} so that casting a spell does
+ * not need to resolve the prefab or scan its components.
+ */
+public final class SpellDefinition {
+
+    private final int id;
+    private final String urn;
+    private final Prefab prefab;
+    private final String displayName;
+    private final int manaCost;
+    private final long castingTimeMs;
+    private final long cooldownMs;
+    private final long globalCooldownMs;
+    private final int maxCharges;
+    private final long chargeRechargeMs;
+    private final List<Launch> launches;
+    private final Volley volley;
+    private final AreaEffect areaEffect;
+    private final Hitscan hitscan;
+
+    SpellDefinition(int id, Prefab prefab, SpellComponent spellComponent) {
+        this.id = id;
+        this.urn = prefab.getUrn().toString();
+        this.prefab = prefab;
+        DisplayNameComponent displayNameComponent = prefab.getComponent(DisplayNameComponent.class);
+        this.displayName = displayNameComponent != null ? displayNameComponent.name : urn;
+        this.manaCost = spellComponent.manaCost;
+        this.castingTimeMs = spellComponent.castingTimeMs;
+        this.cooldownMs = spellComponent.cooldownMs;
+        this.globalCooldownMs = spellComponent.globalCooldownMs;
+        this.maxCharges = spellComponent.maxCharges;
+        this.chargeRechargeMs = spellComponent.chargeRechargeMs;
+
+        ImmutableList.Builder<Launch> launchBuilder = ImmutableList.builder();
+        LaunchEntityComponent launchEntityComponent = prefab.getComponent(LaunchEntityComponent.class);
+        if (launchEntityComponent != null && launchEntityComponent.launchEntityPrefab != null) {
+            launchBuilder.add(new Launch(launchEntityComponent.launchEntityPrefab, launchEntityComponent.impulse));
+        }
+        this.launches = launchBuilder.build();
+
+        VolleyComponent volleyComponent = prefab.getComponent(VolleyComponent.class);
+        this.volley = volleyComponent != null && volleyComponent.count > 1
+                ? new Volley(volleyComponent.count, volleyComponent.spreadDegrees, volleyComponent.pattern)
+                : Volley.SINGLE;
+
+        AreaEffectComponent areaEffectComponent = prefab.getComponent(AreaEffectComponent.class);
+        this.areaEffect = areaEffectComponent != null ? new AreaEffect(areaEffectComponent) : null;
+
+        HitscanComponent hitscanComponent = prefab.getComponent(HitscanComponent.class);
+        this.hitscan = hitscanComponent != null ? new Hitscan(hitscanComponent) : null;
+    }
+
+    /**
+     * @return the registry id of this spell, stable for as long as the set of spell prefabs does not change
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getUrn() {
+        return urn;
+    }
+
+    public Prefab getPrefab() {
+        return prefab;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public int getManaCost() {
+        return manaCost;
+    }
+
+    public long getCastingTimeMs() {
+        return castingTimeMs;
+    }
+
+    public long getCooldownMs() {
+        return cooldownMs;
+    }
+
+    public long getGlobalCooldownMs() {
+        return globalCooldownMs;
+    }
+
+    /**
+     * @return the number of casts that can be stored up, or 0 if the spell does not use charges
+     */
+    public int getMaxCharges() {
+        return maxCharges;
+    }
+
+    public long getChargeRechargeMs() {
+        return chargeRechargeMs;
+    }
+
+    /**
+     * @return the entities this spell launches when it is cast, in the order they are launched
+     */
+    public List<Launch> getLaunches() {
+        return launches;
+    }
+
+    /**
+     * @return how many projectiles each launch fires per cast, and in which directions
+     */
+    public Volley getVolley() {
+        return volley;
+    }
+
+    /**
+     * @return the area this spell affects around its caster, or null if it has no area effect
+     */
+    public AreaEffect getAreaEffect() {
+        return areaEffect;
+    }
+
+    /**
+     * @return how this spell strikes instantly along the aim, or null if it is not a hitscan spell
+     */
+    public Hitscan getHitscan() {
+        return hitscan;
+    }
+
+    @Override
+    public String toString() {
+        return "SpellDefinition{" +
+                "id=" + id +
+                ", urn='" + urn + '\'' +
+                ", manaCost=" + manaCost +
+                ", castingTimeMs=" + castingTimeMs +
+                ", cooldownMs=" + cooldownMs +
+                ", maxCharges=" + maxCharges +
+                ", launches=" + launches.size() +
+                ", volley=" + volley.getCount() +
+                '}';
+    }
+
+    /**
+     * Launch parameters copied out of a spell's LaunchEntityComponent.
+     */
+    public static final class Launch {
+        private final Prefab launchEntityPrefab;
+        private final float impulse;
+
+        Launch(Prefab launchEntityPrefab, float impulse) {
+            this.launchEntityPrefab = launchEntityPrefab;
+            this.impulse = impulse;
+        }
+
+        public Prefab getLaunchEntityPrefab() {
+            return launchEntityPrefab;
+        }
+
+        public float getImpulse() {
+            return impulse;
+        }
+    }
+
+    /**
+     * Area effect parameters copied out of a spell's AreaEffectComponent.
+     */
+    public static final class AreaEffect {
+        private final float radius;
+        private final float halfAngleDegrees;
+        private final int damage;
+        private final boolean affectsOwnFaction;
+
+        AreaEffect(AreaEffectComponent component) {
+            this.radius = component.radius;
+            this.halfAngleDegrees = component.halfAngleDegrees;
+            this.damage = component.damage;
+            this.affectsOwnFaction = component.affectsOwnFaction;
+        }
+
+        public float getRadius() {
+            return radius;
+        }
+
+        public float getHalfAngleDegrees() {
+            return halfAngleDegrees;
+        }
+
+        public int getDamage() {
+            return damage;
+        }
+
+        public boolean isAffectsOwnFaction() {
+            return affectsOwnFaction;
+        }
+    }
+
+    /**
+     * Hitscan parameters copied out of a spell's HitscanComponent.
+     */
+    public static final class Hitscan {
+        private final float range;
+        private final int damage;
+        private final Prefab impactEffect;
+
+        Hitscan(HitscanComponent component) {
+            this.range = component.range;
+            this.damage = component.damage;
+            this.impactEffect = component.impactEffect;
+        }
+
+        public float getRange() {
+            return range;
+        }
+
+        public int getDamage() {
+            return damage;
+        }
+
+        /**
+         * @return the visual effect shown where the spell strikes, or null for none
+         */
+        public Prefab getImpactEffect() {
+            return impactEffect;
+        }
+    }
+
+    /**
+     * The arrangement of a volley, copied out of a spell's VolleyComponent. The direction of every projectile
+     * relative to the aim, apart from in scattered volleys, is worked out here once rather than on every cast.
+     */
+    public static final class Volley {
+        /**
+         * A single projectile fired straight along the aim
+         */
+        public static final Volley SINGLE = new Volley(1, 0, VolleyPattern.SPREAD);
+
+        private static final Vector3f UP = new Vector3f(0, 1, 0);
+
+        private final int count;
+        private final float spread;
+        private final VolleyPattern pattern;
+        /**
+         * For each projectile, how much of its direction lies along the aim, to the right of it and above it
+         */
+        private final float[] coefficients;
+
+        Volley(int count, float spreadDegrees, VolleyPattern pattern) {
+            this.count = Math.max(1, count);
+            this.spread = spreadDegrees * TeraMath.DEG_TO_RAD;
+            this.pattern = pattern != null ? pattern : VolleyPattern.SPREAD;
+            this.coefficients = new float[this.count * 3];
+            if (this.pattern != VolleyPattern.SCATTER) {
+                for (int i = 0; i < this.count; i++) {
+                    float offAxis;
+                    float around;
+                    if (this.pattern == VolleyPattern.RING) {
+                        offAxis = spread / 2;
+                        around = TeraMath.PI * 2 * i / this.count;
+                    } else {
+                        offAxis = this.count > 1 ? spread * ((float) i / (this.count - 1) - 0.5f) : 0;
+                        around = 0;
+                    }
+                    setCoefficients(coefficients, i, offAxis, around);
+                }
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public VolleyPattern getPattern() {
+            return pattern;
+        }
+
+        /**
+         * Works out the direction of every projectile in the volley.
+         *
+         * @param aim the direction the volley is cast in, need not be normalised
+         * @param random used by scattered volleys
+         * @param out receives the directions as consecutive x, y, z triples, and must hold at least 3 * count floats
+         */
+        public void getDirections(Vector3f aim, Random random, float[] out) {
+            Vector3f forward = new Vector3f(aim);
+            forward.normalize();
+            Vector3f right = new Vector3f();
+            right.cross(forward, UP);
+            if (right.lengthSquared() < 1e-6f) {
+                // Aiming straight up or down, any sideways direction will do
+                right.set(1, 0, 0);
+            }
+            right.normalize();
+            Vector3f up = new Vector3f();
+            up.cross(right, forward);
+
+            float[] weights = coefficients;
+            if (pattern == VolleyPattern.SCATTER) {
+                weights = out;
+                for (int i = 0; i < count; i++) {
+                    float offAxis = spread / 2 * (float) Math.sqrt(random.nextFloat());
+                    float around = random.nextFloat() * TeraMath.PI * 2;
+                    setCoefficients(weights, i, offAxis, around);
+                }
+            }
+            for (int i = 0; i < count * 3; i += 3) {
+                float along = weights[i];
+                float across = weights[i + 1];
+                float above = weights[i + 2];
+                out[i] = forward.x * along + right.x * across + up.x * above;
+                out[i + 1] = forward.y * along + right.y * across + up.y * above;
+                out[i + 2] = forward.z * along + right.z * across + up.z * above;
+            }
+        }
+
+        private static void setCoefficients(float[] into, int index, float offAxis, float around) {
+            float sin = (float) Math.sin(offAxis);
+            into[index * 3] = (float) Math.cos(offAxis);
+            into[index * 3 + 1] = sin * (float) Math.cos(around);
+            into[index * 3 + 2] = sin * (float) Math.sin(around);
+        }
+    }
+}
@@ -2,42 +2,90 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.wizardbattles.spell;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.combatSystem.weaponFeatures.OwnerSpecific;
 import org.terasology.combatSystem.weaponFeatures.components.LaunchEntityComponent;
 import org.terasology.combatSystem.weaponFeatures.events.LaunchEntityEvent;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
-import org.terasology.entitySystem.prefab.Prefab;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.logic.common.ActivateEvent;
-import org.terasology.utilities.Assets;
+import org.terasology.registry.In;
 import org.terasology.wizardbattles.casting.CastEvent;
 
-import java.util.Optional;
-
+/**
+ * Casts the spell of a spell item when it is used. Each item's spell is resolved to its id when the item is activated
+ * or changed, so a cast looks the spell up by id rather than by name. The ids are resolved again when the spells are
+ * recompiled.
+ */
 @RegisterSystem
 public class SpellItemSystem extends BaseComponentSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(SpellItemSystem.class);
 
+    private static final int UNRESOLVED = -1;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private SpellCooldownSystem spellCooldowns;
+
+    /**
+     * The id of each item's spell, for the registry generation {@link #generation}
+     */
+    private final TObjectIntMap<EntityRef> spellIds = new TObjectIntHashMap<>(16, 0.5f, UNRESOLVED);
+    private int generation = -1;
+
+    @Override
+    public void shutdown() {
+        spellIds.clear();
+    }
+
+    @ReceiveEvent(components = SpellItemComponent.class)
+    public void onSpellItemActivated(OnActivatedComponent event, EntityRef item, SpellItemComponent spellItem) {
+        resolve(item, spellItem);
+    }
+
+    @ReceiveEvent(components = SpellItemComponent.class)
+    public void onSpellItemChanged(OnChangedComponent event, EntityRef item, SpellItemComponent spellItem) {
+        resolve(item, spellItem);
+    }
+
+    @ReceiveEvent(components = SpellItemComponent.class)
+    public void onSpellItemDeactivated(BeforeDeactivateComponent event, EntityRef item) {
+        spellIds.remove(item);
+    }
+
     @ReceiveEvent(components = SpellItemComponent.class)
     public void cast(ActivateEvent event, EntityRef entity) {
         SpellItemComponent spellItemComponent = entity.getComponent(SpellItemComponent.class);
-        String spellPrefabName = spellItemComponent.spell;
-        if (spellPrefabName == null) {
+        if (spellItemComponent.spell == null) {
             logger.error("Improperly configured SpellItemComponent: no spell prefab specified");
             return;
         }
-        Optional<Prefab> prefabOptional = Assets.getPrefab(spellPrefabName);
-        if (!prefabOptional.isPresent()) {
+        checkGeneration();
+        int spellId = spellIds.get(entity);
+        if (spellId == UNRESOLVED) {
+            spellId = resolve(entity, spellItemComponent);
+        }
+        SpellDefinition spell = spellRegistry.get(spellId);
+        if (generation != spellRegistry.getGeneration()) {
+            // The spells were recompiled by the lookup, so the id may now name another spell
+            spell = spellRegistry.get(resolve(entity, spellItemComponent));
+        }
+        if (spell == null) {
             logger.error("Improperly configured SpellItemComponent: spell prefab does not exist");
             return;
         } else {
-            Prefab spellPrefab = prefabOptional.get();
-            castSpell(event, spellPrefab, entity);
+            castSpell(event, spell, entity);
         }
 
         // todo will copy the launch entity system code and implement my own that doesn't require an entity with
@@ -47,20 +95,43 @@ public class SpellItemSystem extends BaseComponentSystem {
         // gets event (maybe requires a spellSource component, indicating that this entity can be a source of
         // spells?) -> casting system does what's required based on spell prefab and its components (e.g. launch
         // entity, summon monster, teleport player etc.)
-//        if (spellItemComponent.charges > 0) {
-//            spellItemComponent.charges--;
-//            entity.saveComponent(spellItemComponent);
-//            entity.send(new CastEvent(event));
-//        } else if (spellItemComponent.charges == -1) {
-//            // Unlimited charges
-//            entity.send(new CastEvent(event));
-//        }
     }
 
-    private void castSpell(ActivateEvent event, Prefab spellPrefab, EntityRef itemEntity) {
+    /**
+     * Looks up the item's spell by name and remembers its id.
+     *
+     * @return the spell's id, or {@link #UNRESOLVED} if there is no such spell
+     */
+    private int resolve(EntityRef item, SpellItemComponent spellItem) {
+        checkGeneration();
+        SpellDefinition spell = spellRegistry.get(spellItem.spell);
+        if (spell == null) {
+            spellIds.remove(item);
+            return UNRESOLVED;
+        }
+        spellIds.put(item, spell.getId());
+        return spell.getId();
+    }
+
+    /**
+     * Forgets every resolved id once the spells have been recompiled, as the ids may have changed.
+     */
+    private void checkGeneration() {
+        if (generation != spellRegistry.getGeneration()) {
+            spellIds.clear();
+            generation = spellRegistry.getGeneration();
+        }
+    }
+
+    private void castSpell(ActivateEvent event, SpellDefinition spell, EntityRef itemEntity) {
         EntityRef ultimateOwner = OwnerSpecific.getUltimateOwner(itemEntity);
         if (ultimateOwner != null) {
-            ultimateOwner.send(new SpellCastEvent(event, spellPrefab));
+            if (!spellCooldowns.isReady(ultimateOwner, spell)
+                    || !spellCooldowns.useItemCharge(itemEntity, itemEntity.getComponent(SpellItemComponent.class))) {
+                return;
+            }
+            spellCooldowns.use(ultimateOwner, spell);
+            ultimateOwner.send(new SpellCastEvent(event, spell));
         } else {
             logger.error("Failed to find owner of SpellItem");
         }
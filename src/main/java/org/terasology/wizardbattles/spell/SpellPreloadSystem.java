@@ -0,0 +1,207 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.assets.Asset;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.logic.players.LocalPlayer;
+import org.terasology.particles.components.ParticleDataSpriteComponent;
+import org.terasology.registry.In;
+import org.terasology.rendering.assets.material.Material;
+import org.terasology.rendering.assets.mesh.Mesh;
+import org.terasology.rendering.assets.texture.Texture;
+import org.terasology.rendering.logic.MeshComponent;
+import org.terasology.utilities.Assets;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Warms up spells before they are first cast, so the first cast of each does not stall the game.
+ * <p>
+ * Every spell is queued when the game starts, and the local player's spells again whenever their grimoire changes
+ * after the spells have been recompiled. Warming a spell looks up the meshes, materials and particle textures of its
+ * launch and impact effect prefabs through the asset manager, so any not loaded yet are loaded and uploaded then, and
+ * creates and destroys one entity from each prefab so the first real one does not pay for setting it up. Assets in
+ * Terasology are created on the game thread, so the queue is worked through there, one spell per update, rather than
+ * on a background thread.
+ * <p>
+ * The time taken for each spell is logged and kept for the <code>spellPreloadReport</code> command.
+ */
+@RegisterSystem(RegisterMode.CLIENT)
+public class SpellPreloadSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpellPreloadSystem.class);
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    @In
+    private GrimoireSystem grimoires;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private LocalPlayer localPlayer;
+
+    private final Deque<SpellDefinition> queue = new ArrayDeque<>();
+    /**
+     * The ids of the spells warmed or queued since the spells were last compiled
+     */
+    private final BitSet queued = new BitSet();
+    /**
+     * Milliseconds taken to warm each spell, by urn
+     */
+    private final Map<String, Double> loadTimes = new LinkedHashMap<>();
+    private int generation = -1;
+    private long startedAt;
+
+    @Override
+    public void postBegin() {
+        for (SpellDefinition spell : spellRegistry.getAll()) {
+            enqueue(spell);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        queue.clear();
+        queued.clear();
+        loadTimes.clear();
+    }
+
+    @ReceiveEvent(components = GrimoireComponent.class)
+    public void onGrimoireActivated(OnActivatedComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity())) {
+            enqueueGrimoire(entity);
+        }
+    }
+
+    @ReceiveEvent(components = GrimoireComponent.class)
+    public void onGrimoireChanged(OnChangedComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity())) {
+            enqueueGrimoire(entity);
+        }
+    }
+
+    @Override
+    public void update(float delta) {
+        SpellDefinition spell = queue.poll();
+        if (spell == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (SpellDefinition.Launch launch : spell.getLaunches()) {
+            warm(launch.getLaunchEntityPrefab());
+        }
+        SpellDefinition.Hitscan hitscan = spell.getHitscan();
+        if (hitscan != null) {
+            warm(hitscan.getImpactEffect());
+        }
+        double ms = (System.nanoTime() - start) / 1_000_000.0;
+        loadTimes.put(spell.getUrn(), ms);
+        logger.debug("Preloaded {} in {} ms", spell.getUrn(), String.format("%.2f", ms));
+        if (queue.isEmpty()) {
+            logger.info("Preloaded {} spells in {} ms", loadTimes.size(),
+                    (System.nanoTime() - startedAt) / 1_000_000);
+        }
+    }
+
+    @Command(shortDescription = "Shows how long each spell took to preload",
+            requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String spellPreloadReport() {
+        if (loadTimes.isEmpty()) {
+            return "No spells have been preloaded";
+        }
+        StringBuilder report = new StringBuilder();
+        double total = 0;
+        for (Map.Entry<String, Double> entry : loadTimes.entrySet()) {
+            report.append(String.format("%s: %.2f ms%n", entry.getKey(), entry.getValue()));
+            total += entry.getValue();
+        }
+        report.append(String.format("%d spells, %.2f ms in total", loadTimes.size(), total));
+        if (!queue.isEmpty()) {
+            report.append(", ").append(queue.size()).append(" still queued");
+        }
+        return report.toString();
+    }
+
+    private void enqueueGrimoire(EntityRef entity) {
+        Grimoire grimoire = grimoires.get(entity);
+        for (int i = 0; i < grimoire.size(); i++) {
+            enqueue(grimoire.get(i));
+        }
+    }
+
+    private void enqueue(SpellDefinition spell) {
+        if (generation != spellRegistry.getGeneration()) {
+            // Spells have been recompiled, everything needs warming again
+            generation = spellRegistry.getGeneration();
+            queue.clear();
+            queued.clear();
+            loadTimes.clear();
+        }
+        if (!queued.get(spell.getId())) {
+            if (queue.isEmpty()) {
+                startedAt = System.nanoTime();
+            }
+            queued.set(spell.getId());
+            queue.add(spell);
+        }
+    }
+
+    private void warm(Prefab prefab) {
+        if (prefab == null) {
+            return;
+        }
+        MeshComponent mesh = prefab.getComponent(MeshComponent.class);
+        if (mesh != null) {
+            if (mesh.mesh != null) {
+                resolve(mesh.mesh, Mesh.class, prefab);
+            }
+            if (mesh.material != null) {
+                // Resolving the material resolves the textures its parameters name
+                resolve(mesh.material, Material.class, prefab).filter(material -> !material.isRenderable())
+                        .ifPresent(material -> logger.warn("Material {} of {} is not renderable",
+                                material.getUrn(), prefab.getUrn()));
+            }
+        }
+        ParticleDataSpriteComponent sprite = prefab.getComponent(ParticleDataSpriteComponent.class);
+        if (sprite != null && sprite.texture != null) {
+            resolve(sprite.texture, Texture.class, prefab);
+        }
+        EntityRef instance = entityManager.create(prefab);
+        instance.setPersistent(false);
+        instance.destroy();
+    }
+
+    /**
+     * Looks an asset up again through the asset manager, which loads it, and uploads it to the GPU, if it has been
+     * disposed of since the prefab was loaded, e.g. because the module's assets were reloaded.
+     */
+    private <T extends Asset<?>> Optional<T> resolve(Asset<?> asset, Class<T> type, Prefab prefab) {
+        Optional<T> resolved = Assets.get(asset.getUrn(), type);
+        if (!resolved.isPresent()) {
+            logger.warn("{} {} of {} could not be loaded", type.getSimpleName(), asset.getUrn(), prefab.getUrn());
+        }
+        return resolved;
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabManager;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.utilities.Assets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Compiles every prefab with a {@link SpellComponent} into a {@link SpellDefinition} and hands out small integer ids
+ * for them. Ids are assigned in URN order, so a server and its clients running the same modules agree on them.
+ * <p>
+ * Definitions are recompiled when one of their prefabs has been disposed, or on request with the
+ * <code>reloadSpells</code> command after prefabs have been reloaded. Caches derived from definitions can compare
+ * {@link #getGeneration()} to find out when that has happened.
+ */
+@RegisterSystem
+@Share(SpellRegistry.class)
+public class SpellRegistry extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpellRegistry.class);
+
+    @In
+    private PrefabManager prefabManager;
+
+    private SpellDefinition[] definitions = new SpellDefinition[0];
+    private Map<String, SpellDefinition> definitionsByUrn = new HashMap<>();
+    private boolean compiled;
+    private int generation;
+
+    @Override
+    public void initialise() {
+        compile();
+    }
+
+    @Override
+    public void shutdown() {
+        definitions = new SpellDefinition[0];
+        definitionsByUrn = new HashMap<>();
+        compiled = false;
+    }
+
+    /**
+     * @param id a spell id
+     * @return the definition, or null if there is no spell with that id
+     */
+    public SpellDefinition get(int id) {
+        ensureCompiled();
+        if (id < 0 || id >= definitions.length) {
+            return null;
+        }
+        SpellDefinition definition = definitions[id];
+        if (definition.getPrefab().isDisposed()) {
+            invalidate();
+            return get(id);
+        }
+        return definition;
+    }
+
+    /**
+     * @param urn the urn of a spell prefab, as used in GrimoireComponent and SpellItemComponent
+     * @return the definition, or null if the urn does not name a spell prefab
+     */
+    public SpellDefinition get(String urn) {
+        if (urn == null || urn.isEmpty()) {
+            return null;
+        }
+        ensureCompiled();
+        String key = urn.toLowerCase(Locale.ROOT);
+        SpellDefinition definition = definitionsByUrn.get(key);
+        if (definition == null) {
+            // Not fully qualified, resolve it the slow way once and remember the answer
+            Optional<Prefab> prefab = Assets.getPrefab(urn);
+            if (prefab.isPresent()) {
+                definition = definitionsByUrn.get(prefab.get().getUrn().toString().toLowerCase(Locale.ROOT));
+                if (definition != null) {
+                    definitionsByUrn.put(key, definition);
+                }
+            }
+        } else if (definition.getPrefab().isDisposed()) {
+            invalidate();
+            return get(urn);
+        }
+        return definition;
+    }
+
+    /**
+     * @return the number of known spells; valid ids run from 0 to size() - 1
+     */
+    public int size() {
+        ensureCompiled();
+        return definitions.length;
+    }
+
+    /**
+     * @return all definitions, ordered by id
+     */
+    public List<SpellDefinition> getAll() {
+        ensureCompiled();
+        List<SpellDefinition> all = new ArrayList<>(definitions.length);
+        Collections.addAll(all, definitions);
+        return all;
+    }
+
+    /**
+     * @return a number that changes every time the definitions are recompiled
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Discards the compiled definitions; they are rebuilt from their prefabs on next use.
+     */
+    public void invalidate() {
+        compiled = false;
+    }
+
+    @Command(shortDescription = "Recompiles spell definitions from their prefabs",
+            requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String reloadSpells() {
+        invalidate();
+        ensureCompiled();
+        return "Compiled " + definitions.length + " spells";
+    }
+
+    private void ensureCompiled() {
+        if (!compiled) {
+            compile();
+        }
+    }
+
+    private void compile() {
+        List<Prefab> prefabs = new ArrayList<>(prefabManager.listPrefabs(SpellComponent.class));
+        prefabs.sort(Comparator.comparing(prefab -> prefab.getUrn().toString().toLowerCase(Locale.ROOT)));
+
+        SpellDefinition[] compiledDefinitions = new SpellDefinition[prefabs.size()];
+        Map<String, SpellDefinition> byUrn = new HashMap<>();
+        for (int id = 0; id < compiledDefinitions.length; id++) {
+            Prefab prefab = prefabs.get(id);
+            SpellDefinition definition = new SpellDefinition(id, prefab, prefab.getComponent(SpellComponent.class));
+            compiledDefinitions[id] = definition;
+            byUrn.put(definition.getUrn().toLowerCase(Locale.ROOT), definition);
+        }
+        definitions = compiledDefinitions;
+        definitionsByUrn = byUrn;
+        compiled = true;
+        generation++;
+        logger.info("Compiled {} spell definitions", compiledDefinitions.length);
+    }
+}
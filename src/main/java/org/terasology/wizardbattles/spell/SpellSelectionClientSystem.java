@@ -4,110 +4,146 @@ package org.terasology.wizardbattles.spell;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
-import org.terasology.entitySystem.prefab.Prefab;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.logic.characters.CharacterComponent;
 import org.terasology.logic.players.LocalPlayer;
+import org.terasology.network.ClientComponent;
 import org.terasology.registry.In;
 import org.terasology.rendering.nui.NUIManager;
-import org.terasology.utilities.Assets;
 import org.terasology.wizardbattles.casting.BeginCastingEvent;
+import org.terasology.wizardbattles.casting.CastPredictionClientSystem;
 import org.terasology.wizardbattles.casting.CastSpellButton;
 import org.terasology.wizardbattles.mana.ManaUtil;
-
-import java.util.List;
-import java.util.Optional;
+import org.terasology.wizardbattles.metrics.WizardBattlesMetrics;
 
 @RegisterSystem(RegisterMode.CLIENT)
 public class SpellSelectionClientSystem extends BaseComponentSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(SpellSelectionClientSystem.class);
+    private static final String SPELL_SELECTION_HUD = "WizardBattles:SpellSelection";
 
     @In
     private LocalPlayer localPlayer;
 
+    @In
+    private Time time;
+
     @In
     private EntityManager entityManager;
 
     @In
     private NUIManager nuiManager;
 
+    @In
+    private WizardBattlesMetrics metrics;
+
+    @In
+    private CastPredictionClientSystem castPrediction;
+
+    @In
+    private SpellCooldownSystem spellCooldowns;
+
+    @In
+    private GrimoireSystem grimoires;
+
+    private SpellSelectionWindow spellSelectionWindow;
+
     @Override
     public void initialise() {
         logger.info("Init");
-        nuiManager.getHUD().addHUDElement("WizardBattles:SpellSelection");
-        nuiManager.getHUD().addHUDElement("WizardBattles:Casting");
+        nuiManager.getHUD().addHUDElement(SPELL_SELECTION_HUD);
+        spellSelectionWindow = nuiManager.getHUD().getHUDElement(SPELL_SELECTION_HUD, SpellSelectionWindow.class);
     }
 
-    @ReceiveEvent(components = {CharacterComponent.class}, netFilter = RegisterMode.CLIENT)
-    public void onNextSpell(NextSpellButton event, EntityRef entity,
-                           SpellSelectionComponent spellSelectionComponent, GrimoireComponent grimoireComponent) {
-        List<String> knownSpells = grimoireComponent.knownSpells;
-        String current = spellSelectionComponent.selected;
-        String spell = null;
-        if (current == null || current.length() == 0) {
-            if (knownSpells.size() > 0) {
-                spell = knownSpells.get(0);
-            } else {
-                logger.warn("Cannot change spell: none known");
-            }
-        } else {
-            int currentIndex = knownSpells.indexOf(current);
-            if (currentIndex == knownSpells.size() - 1) {
-                spell = knownSpells.get(0);
-            } else {
-                spell = knownSpells.get(currentIndex + 1);
-            }
+    @ReceiveEvent(components = {GrimoireComponent.class, SpellSelectionComponent.class})
+    public void onSelectionActivated(OnActivatedComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity())) {
+            refreshHud();
+        }
+    }
+
+    @ReceiveEvent(components = {GrimoireComponent.class, SpellSelectionComponent.class})
+    public void onSelectionChanged(OnChangedComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity())) {
+            refreshHud();
         }
-        spellSelectionComponent.selected = spell;
+    }
+
+    @ReceiveEvent(components = GrimoireComponent.class)
+    public void onGrimoireDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        if (entity.equals(localPlayer.getCharacterEntity()) && spellSelectionWindow != null) {
+            spellSelectionWindow.setSelection(null);
+        }
+    }
+
+    /**
+     * Picks up the new character when the local player respawns.
+     */
+    @ReceiveEvent(components = ClientComponent.class)
+    public void onClientChanged(OnChangedComponent event, EntityRef client) {
+        if (client.equals(localPlayer.getClientEntity())) {
+            refreshHud();
+        }
+    }
 
-        localPlayer.getCharacterEntity().saveComponent(spellSelectionComponent);
+    @ReceiveEvent(components = {CharacterComponent.class, SpellSelectionComponent.class}, netFilter = RegisterMode.CLIENT)
+    public void onNextSpell(NextSpellButton event, EntityRef entity) {
+        if (grimoires.get(entity).size() == 0) {
+            logger.warn("Cannot change spell: none known");
+        }
+        grimoires.selectNext(entity);
         event.consume();
     }
 
-    @ReceiveEvent(components = {CharacterComponent.class}, netFilter = RegisterMode.CLIENT)
-    public void onPrevSpell(PrevSpellButton event, EntityRef entity,
-                           SpellSelectionComponent spellSelectionComponent, GrimoireComponent grimoireComponent) {
-        List<String> knownSpells = grimoireComponent.knownSpells;
-        String current = spellSelectionComponent.selected;
-        String spell = null;
-        if (current == null || current.length() == 0) {
-            if (knownSpells.size() > 0) {
-                spell = knownSpells.get(knownSpells.size() - 1);
-            } else {
-                logger.warn("Cannot change spell: none known");
-            }
-        } else {
-            int currentIndex = knownSpells.indexOf(current);
-            if (currentIndex == 0) {
-                spell = knownSpells.get(knownSpells.size() - 1);
-            } else {
-                spell = knownSpells.get(currentIndex - 1);
-            }
+    @ReceiveEvent(components = {CharacterComponent.class, SpellSelectionComponent.class}, netFilter = RegisterMode.CLIENT)
+    public void onPrevSpell(PrevSpellButton event, EntityRef entity) {
+        if (grimoires.get(entity).size() == 0) {
+            logger.warn("Cannot change spell: none known");
         }
-        spellSelectionComponent.selected = spell;
+        grimoires.selectPrevious(entity);
+        event.consume();
+    }
 
-        localPlayer.getCharacterEntity().saveComponent(spellSelectionComponent);
+    @ReceiveEvent(components = {CharacterComponent.class, SpellSelectionComponent.class}, netFilter = RegisterMode.CLIENT)
+    public void onSpellSlot(SpellSlotButton event, EntityRef entity) {
+        grimoires.select(entity, event.getSlot());
         event.consume();
     }
 
     @ReceiveEvent(components = {CharacterComponent.class}, netFilter = RegisterMode.CLIENT)
     public void onCastSpellButton(CastSpellButton event, EntityRef entity, SpellSelectionComponent spellSelectionComponent) {
-        String current = spellSelectionComponent.selected;
-        if (current != null) {
-            Optional<Prefab> optionalPrefab = Assets.getPrefab(current);
-            if (optionalPrefab.isPresent()) {
-                Prefab spellPrefab = optionalPrefab.get();
-                if (ManaUtil.hasSufficient(spellPrefab, entity)) {
-                    ManaUtil.sendConsumeEvent(entity, spellPrefab);
-                    entity.send(new BeginCastingEvent());
-                }
+        SpellDefinition spell = grimoires.get(entity).get(spellSelectionComponent.index);
+        if (spell != null && spellCooldowns.isReady(entity, spell)) {
+            if (!ManaUtil.hasSufficient(spell, entity, time.getGameTimeInMs())) {
+                metrics.castRejectedForMana();
+            } else if (castPrediction.isPredicting()) {
+                castPrediction.predictCast(entity, spell);
+            } else {
+                ManaUtil.sendConsumeEvent(entity, spell);
+                entity.send(new BeginCastingEvent(spell.getId()));
             }
         }
     }
+
+    private void refreshHud() {
+        if (spellSelectionWindow == null) {
+            return;
+        }
+        EntityRef character = localPlayer.getCharacterEntity();
+        if (!character.hasComponent(GrimoireComponent.class)) {
+            spellSelectionWindow.setSelection(null);
+            return;
+        }
+        SpellDefinition spell = grimoires.getSelected(character);
+        spellSelectionWindow.setSelection(spell != null ? spell.getDisplayName() : SpellSelectionWindow.NONE);
+    }
 }
@@ -3,8 +3,14 @@
 package org.terasology.wizardbattles.spell;
 
 import org.terasology.entitySystem.Component;
+import org.terasology.network.FieldReplicateType;
+import org.terasology.network.Replicate;
 
 public class SpellSelectionComponent implements Component {
 
-    public String selected;
+    /**
+     * The index of the selected spell in the entity's {@link Grimoire}, or -1 if none is selected
+     */
+    @Replicate(FieldReplicateType.OWNER_TO_SERVER)
+    public int index = -1;
 }
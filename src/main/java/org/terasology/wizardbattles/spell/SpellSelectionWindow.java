@@ -2,21 +2,24 @@
 // SPDX-License-Identifier: Apache-2.0
 package org.terasology.wizardbattles.spell;
 
-import org.terasology.entitySystem.entity.EntityRef;
-import org.terasology.entitySystem.prefab.Prefab;
-import org.terasology.logic.common.DisplayNameComponent;
-import org.terasology.logic.players.LocalPlayer;
 import org.terasology.nui.databinding.Binding;
 import org.terasology.nui.databinding.ReadOnlyBinding;
 import org.terasology.nui.widgets.UIText;
-import org.terasology.registry.CoreRegistry;
 import org.terasology.rendering.nui.layers.hud.CoreHudWidget;
-import org.terasology.utilities.Assets;
 
-import java.util.Optional;
+/**
+ * Shows the name of the local player's selected spell. The {@link SpellSelectionClientSystem} passes it in whenever
+ * the selection changes.
+ */
+public class SpellSelectionWindow extends CoreHudWidget {
 
+    /**
+     * Shown when no spell is selected.
+     */
+    public static final String NONE = "None";
 
-public class SpellSelectionWindow extends CoreHudWidget {
+    private boolean visible;
+    private String selection = NONE;
 
     @Override
     public void initialise() {
@@ -24,34 +27,14 @@ public class SpellSelectionWindow extends CoreHudWidget {
         uiText.bindVisible(new ReadOnlyBinding<Boolean>() {
             @Override
             public Boolean get() {
-                EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                return character != null && character.hasComponent(GrimoireComponent.class);
+                return visible;
             }
         });
         uiText.bindText(
                 new Binding<String>() {
                     @Override
                     public String get() {
-                        EntityRef character = CoreRegistry.get(LocalPlayer.class).getCharacterEntity();
-                        if (character == null || !character.hasComponent(GrimoireComponent.class)) {
-                            return "";
-                        }
-
-                        SpellSelectionComponent spellSelectionComponent =
-                                character.getComponent(SpellSelectionComponent.class);
-                        String displayName = "None";
-                        if (spellSelectionComponent != null && spellSelectionComponent.selected != null
-                                && spellSelectionComponent.selected.length() > 0) {
-                            Optional<Prefab> optionalPrefab = Assets.getPrefab(spellSelectionComponent.selected);
-                            if (optionalPrefab.isPresent()) {
-                                Prefab prefab = optionalPrefab.get();
-                                DisplayNameComponent displayNameComponent = prefab.getComponent(DisplayNameComponent.class);
-                                if (displayNameComponent != null) {
-                                    displayName = displayNameComponent.name;
-                                }
-                            }
-                        }
-                        return displayName;
+                        return visible ? selection : "";
                     }
 
                     @Override
@@ -59,4 +42,14 @@ public class SpellSelectionWindow extends CoreHudWidget {
                     }
                 });
     }
+
+    /**
+     * @param displayName the name of the selected spell, or null to hide the window
+     */
+    public void setSelection(String displayName) {
+        visible = displayName != null;
+        if (visible) {
+            selection = displayName;
+        }
+    }
 }
@@ -0,0 +1,23 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.input.ActivateMode;
+import org.terasology.input.DefaultBinding;
+import org.terasology.input.InputType;
+import org.terasology.input.Keyboard;
+import org.terasology.input.RegisterBindButton;
+
+/**
+ */
+@RegisterBindButton(id = "spellSlot2",
+        description = "${WizardBattles:menu#spell-slot-2}", mode = ActivateMode.PRESS, category = "inventory")
+@DefaultBinding(type = InputType.KEY, id = Keyboard.KeyId.NUMPAD_2)
+public class SpellSlot2Button extends SpellSlotButton {
+
+    @Override
+    public int getSlot() {
+        return 1;
+    }
+}
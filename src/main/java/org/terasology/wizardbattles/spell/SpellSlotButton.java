@@ -0,0 +1,17 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.input.BindButtonEvent;
+
+/**
+ * A button selecting the spell in one slot of the grimoire. Slot n selects the n-th spell.
+ */
+public abstract class SpellSlotButton extends BindButtonEvent {
+
+    /**
+     * @return the index in the grimoire of the spell this button selects
+     */
+    public abstract int getSlot();
+}
@@ -0,0 +1,23 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * Added to a spell prefab alongside its LaunchEntityComponent to launch several projectiles per cast instead of one.
+ */
+public class VolleyComponent implements Component {
+
+    /**
+     * The number of projectiles launched per cast
+     */
+    public int count = 1;
+
+    /**
+     * The angle the volley covers, in degrees
+     */
+    public float spreadDegrees = 30;
+
+    public VolleyPattern pattern = VolleyPattern.SPREAD;
+}
@@ -0,0 +1,21 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.spell;
+
+/**
+ * How the projectiles of a volley are arranged around the direction it is cast in.
+ */
+public enum VolleyPattern {
+    /**
+     * A flat fan from side to side, <code>spreadDegrees</code> wide
+     */
+    SPREAD,
+    /**
+     * Evenly spaced around a cone <code>spreadDegrees</code> across
+     */
+    RING,
+    /**
+     * Scattered at random within a cone <code>spreadDegrees</code> across, differently on every cast
+     */
+    SCATTER
+}
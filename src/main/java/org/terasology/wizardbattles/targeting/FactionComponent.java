@@ -0,0 +1,14 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.targeting;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * The side a character or NPC is on. Spells that filter by faction leave members of the caster's own faction alone;
+ * entities without a faction are never left out.
+ */
+public class FactionComponent implements Component {
+
+    public String faction;
+}
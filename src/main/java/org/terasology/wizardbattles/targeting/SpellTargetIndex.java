@@ -0,0 +1,338 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.targeting;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.characters.CharacterComponent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.Share;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Finds characters and NPCs near a point, for spells that hit an area or pick their targets.
+ * <p>
+ * Every entity with a CharacterComponent and a LocationComponent is kept in a uniform grid of {@link #CELL_SIZE}
+ * square columns, moved between cells as its location changes. A query only visits the cells it overlaps, so its cost
+ * depends on how many entities are nearby rather than on how many there are in the world.
+ * <p>
+ * All queries can leave out one entity, usually the caster, and the members of one faction.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(SpellTargetIndex.class)
+public class SpellTargetIndex extends BaseComponentSystem {
+
+    /**
+     * The width of a grid cell, in blocks.
+     */
+    public static final float CELL_SIZE = 8f;
+
+    private static final Comparator<Candidate> FURTHEST_FIRST =
+            (a, b) -> Float.compare(b.distanceSquared, a.distanceSquared);
+
+    private final Map<EntityRef, Entry> entries = new HashMap<>();
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+    @Override
+    public void shutdown() {
+        entries.clear();
+        cells.clear();
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterActivated(OnActivatedComponent event, EntityRef entity) {
+        update(entity);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterChanged(OnChangedComponent event, EntityRef entity) {
+        update(entity);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, FactionComponent.class})
+    public void onFactionActivated(OnActivatedComponent event, EntityRef entity, FactionComponent faction) {
+        setFaction(entity, faction.faction);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, FactionComponent.class})
+    public void onFactionChanged(OnChangedComponent event, EntityRef entity, FactionComponent faction) {
+        setFaction(entity, faction.faction);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, FactionComponent.class})
+    public void onFactionDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        setFaction(entity, null);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        Entry entry = entries.remove(entity);
+        if (entry != null) {
+            removeFromCell(entry);
+        }
+    }
+
+    /**
+     * @return the number of entities in the index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the entities within a radius of a point.
+     *
+     * @param centre the point to search around
+     * @param radius the search radius
+     * @param exclude an entity to leave out, or EntityRef.NULL
+     * @param excludeFaction a faction whose members are left out, or null
+     * @param out receives the entities found
+     * @return the number of entities found
+     */
+    public int findInRadius(Vector3f centre, float radius, EntityRef exclude, String excludeFaction,
+                            List<EntityRef> out) {
+        return findInCone(centre, null, radius, 180f, exclude, excludeFaction, out);
+    }
+
+    /**
+     * Finds the entities inside a cone.
+     *
+     * @param apex the tip of the cone
+     * @param direction the direction the cone opens in, need not be normalised; if null the cone is a full sphere
+     * @param range the length of the cone
+     * @param halfAngleDegrees the angle between the cone's axis and its side
+     * @param exclude an entity to leave out, or EntityRef.NULL
+     * @param excludeFaction a faction whose members are left out, or null
+     * @param out receives the entities found
+     * @return the number of entities found
+     */
+    public int findInCone(Vector3f apex, Vector3f direction, float range, float halfAngleDegrees, EntityRef exclude,
+                          String excludeFaction, List<EntityRef> out) {
+        float rangeSquared = range * range;
+        boolean cone = direction != null && halfAngleDegrees < 180f;
+        float axisX = 0;
+        float axisY = 0;
+        float axisZ = 0;
+        float cos = 0;
+        if (cone) {
+            float length = direction.length();
+            if (length == 0) {
+                return 0;
+            }
+            axisX = direction.x / length;
+            axisY = direction.y / length;
+            axisZ = direction.z / length;
+            cos = (float) Math.cos(Math.toRadians(halfAngleDegrees));
+        }
+
+        int found = 0;
+        int minX = cellCoord(apex.x - range);
+        int maxX = cellCoord(apex.x + range);
+        int minZ = cellCoord(apex.z - range);
+        int maxZ = cellCoord(apex.z + range);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                List<Entry> cell = cells.get(cellKey(cx, cz));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    Entry entry = cell.get(i);
+                    if (!accepts(entry, exclude, excludeFaction)) {
+                        continue;
+                    }
+                    float dx = entry.x - apex.x;
+                    float dy = entry.y - apex.y;
+                    float dz = entry.z - apex.z;
+                    float distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared > rangeSquared) {
+                        continue;
+                    }
+                    if (cone && distanceSquared > 0) {
+                        float along = dx * axisX + dy * axisY + dz * axisZ;
+                        if (along < cos * (float) Math.sqrt(distanceSquared)) {
+                            continue;
+                        }
+                    }
+                    out.add(entry.entity);
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds up to k entities nearest to a point, searching outwards from it one ring of cells at a time.
+     *
+     * @param centre the point to search around
+     * @param k the most entities to find
+     * @param maxRadius the furthest an entity may be
+     * @param exclude an entity to leave out, or EntityRef.NULL
+     * @param excludeFaction a faction whose members are left out, or null
+     * @param out receives the entities found, nearest first
+     * @return the number of entities found
+     */
+    public int findNearest(Vector3f centre, int k, float maxRadius, EntityRef exclude, String excludeFaction,
+                           List<EntityRef> out) {
+        if (k <= 0) {
+            return 0;
+        }
+        float maxRadiusSquared = maxRadius * maxRadius;
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(k + 1, FURTHEST_FIRST);
+        int centreX = cellCoord(centre.x);
+        int centreZ = cellCoord(centre.z);
+        int maxRing = (int) Math.ceil(maxRadius / CELL_SIZE);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int cx = centreX - ring; cx <= centreX + ring; cx++) {
+                for (int cz = centreZ - ring; cz <= centreZ + ring; cz++) {
+                    if (Math.abs(cx - centreX) != ring && Math.abs(cz - centreZ) != ring) {
+                        // inside the ring, already visited
+                        continue;
+                    }
+                    List<Entry> cell = cells.get(cellKey(cx, cz));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size(); i++) {
+                        Entry entry = cell.get(i);
+                        if (!accepts(entry, exclude, excludeFaction)) {
+                            continue;
+                        }
+                        float dx = entry.x - centre.x;
+                        float dy = entry.y - centre.y;
+                        float dz = entry.z - centre.z;
+                        float distanceSquared = dx * dx + dy * dy + dz * dz;
+                        if (distanceSquared > maxRadiusSquared) {
+                            continue;
+                        }
+                        if (nearest.size() < k) {
+                            nearest.add(new Candidate(entry.entity, distanceSquared));
+                        } else if (distanceSquared < nearest.peek().distanceSquared) {
+                            nearest.poll();
+                            nearest.add(new Candidate(entry.entity, distanceSquared));
+                        }
+                    }
+                }
+            }
+            // Anything in a ring not yet visited is at least this far away
+            float searched = ring * CELL_SIZE;
+            if (nearest.size() == k && nearest.peek().distanceSquared <= searched * searched) {
+                break;
+            }
+        }
+
+        int found = nearest.size();
+        int start = out.size();
+        for (int i = 0; i < found; i++) {
+            out.add(null);
+        }
+        for (int i = found - 1; i >= 0; i--) {
+            out.set(start + i, nearest.poll().entity);
+        }
+        return found;
+    }
+
+    private void setFaction(EntityRef entity, String faction) {
+        Entry entry = entries.get(entity);
+        if (entry != null) {
+            entry.faction = faction;
+        }
+    }
+
+    private void update(EntityRef entity) {
+        LocationComponent location = entity.getComponent(LocationComponent.class);
+        Vector3f position = location.getWorldPosition();
+        if (Float.isNaN(position.x)) {
+            return;
+        }
+        Entry entry = entries.get(entity);
+        if (entry == null) {
+            entry = new Entry(entity);
+            FactionComponent faction = entity.getComponent(FactionComponent.class);
+            entry.faction = faction != null ? faction.faction : null;
+            entries.put(entity, entry);
+        }
+        entry.x = position.x;
+        entry.y = position.y;
+        entry.z = position.z;
+        long key = cellKey(cellCoord(position.x), cellCoord(position.z));
+        if (entry.cell == null || entry.cellKey != key) {
+            if (entry.cell != null) {
+                removeFromCell(entry);
+            }
+            List<Entry> cell = cells.get(key);
+            if (cell == null) {
+                cell = new ArrayList<>();
+                cells.put(key, cell);
+            }
+            entry.cellKey = key;
+            entry.cell = cell;
+            entry.indexInCell = cell.size();
+            cell.add(entry);
+        }
+    }
+
+    private void removeFromCell(Entry entry) {
+        List<Entry> cell = entry.cell;
+        Entry last = cell.remove(cell.size() - 1);
+        if (last != entry) {
+            cell.set(entry.indexInCell, last);
+            last.indexInCell = entry.indexInCell;
+        }
+        if (cell.isEmpty()) {
+            cells.remove(entry.cellKey);
+        }
+        entry.cell = null;
+    }
+
+    private static boolean accepts(Entry entry, EntityRef exclude, String excludeFaction) {
+        return !entry.entity.equals(exclude) && (excludeFaction == null || !excludeFaction.equals(entry.faction));
+    }
+
+    private static int cellCoord(float coord) {
+        return (int) Math.floor(coord / CELL_SIZE);
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    private static final class Entry {
+        private final EntityRef entity;
+        private String faction;
+        private float x;
+        private float y;
+        private float z;
+        private long cellKey;
+        private List<Entry> cell;
+        private int indexInCell;
+
+        private Entry(EntityRef entity) {
+            this.entity = entity;
+        }
+    }
+
+    private static final class Candidate {
+        private final EntityRef entity;
+        private final float distanceSquared;
+
+        private Candidate(EntityRef entity, float distanceSquared) {
+            this.entity = entity;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+}
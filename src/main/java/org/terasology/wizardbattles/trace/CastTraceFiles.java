@@ -0,0 +1,33 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.trace;
+
+import org.terasology.engine.paths.PathManager;
+
+import java.nio.file.Path;
+
+/**
+ * Where cast traces are kept, and the header each one starts with.
+ */
+final class CastTraceFiles {
+
+    /**
+     * "WBCT"
+     */
+    static final int MAGIC = 0x57424354;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final String EXTENSION = ".wbtrace";
+
+    private CastTraceFiles() {
+    }
+
+    /**
+     * @param name a trace name, with or without the extension
+     * @return the trace file in the home directory
+     */
+    static Path resolve(String name) {
+        String fileName = name.endsWith(EXTENSION) ? name : name + EXTENSION;
+        return PathManager.getInstance().getHomePath().resolve("wizardbattles-traces").resolve(fileName);
+    }
+}
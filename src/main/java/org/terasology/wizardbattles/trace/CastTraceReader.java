@@ -0,0 +1,69 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a cast trace one record at a time, through a buffer refilled from a file channel as it empties.
+ */
+public final class CastTraceReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean endOfFile;
+
+    public CastTraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip();
+        if (!fill(CastTraceFiles.HEADER_SIZE)) {
+            channel.close();
+            throw new IOException("Not a cast trace: " + file);
+        }
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        if (magic != CastTraceFiles.MAGIC || version != CastTraceFiles.VERSION) {
+            channel.close();
+            throw new IOException("Not a version " + CastTraceFiles.VERSION + " cast trace: " + file);
+        }
+    }
+
+    /**
+     * Reads the next record into the given one.
+     *
+     * @return false if the end of the trace has been reached
+     */
+    public boolean next(CastTraceRecord record) throws IOException {
+        if (!fill(CastTraceRecord.SIZE)) {
+            return false;
+        }
+        record.read(buffer);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean fill(int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        buffer.compact();
+        while (!endOfFile && buffer.position() < needed) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= needed;
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.trace;
+
+import org.terasology.math.geom.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One event in a cast trace. Records are written as fixed 16 byte entries:
+ * <pre>
+ * byte  type, with {@link #DERIVED} set if the event was caused by an earlier one in the trace
+ * byte  direction x, y and z, each quantised to -127..127
+ * int   time in milliseconds since recording started
+ * int   caster id
+ * int   spell id, or the amount of mana for {@link #CONSUME_MANA}
+ * </pre>
+ * Instances are reused while reading and writing, so they should not be held on to.
+ */
+public final class CastTraceRecord {
+
+    public static final int SIZE = 16;
+
+    public static final byte BEGIN_CASTING = 1;
+    public static final byte CONSUME_MANA = 2;
+    public static final byte COMPLETE_CASTING = 3;
+    public static final byte SPELL_CAST = 4;
+
+    /**
+     * Set on events the module's systems produce themselves when the events before them are replayed
+     */
+    public static final byte DERIVED = (byte) 0x80;
+
+    private static final float QUANTUM = 127f;
+
+    public byte type;
+    public boolean derived;
+    public int timeMs;
+    public int casterId;
+    public int value;
+    public boolean hasDirection;
+    public final Vector3f direction = new Vector3f();
+
+    /**
+     * @param direction the direction to record, need not be normalised, or null for none
+     */
+    public void set(byte type, int timeMs, int casterId, int value, Vector3f direction) {
+        this.type = type;
+        this.derived = false;
+        this.timeMs = timeMs;
+        this.casterId = casterId;
+        this.value = value;
+        this.hasDirection = direction != null && direction.lengthSquared() > 0;
+        if (hasDirection) {
+            this.direction.set(direction);
+            this.direction.normalize();
+        } else {
+            this.direction.set(0, 0, 0);
+        }
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.put(derived ? (byte) (type | DERIVED) : type);
+        buffer.put(quantise(direction.x));
+        buffer.put(quantise(direction.y));
+        buffer.put(quantise(direction.z));
+        buffer.putInt(timeMs);
+        buffer.putInt(casterId);
+        buffer.putInt(value);
+    }
+
+    void read(ByteBuffer buffer) {
+        byte typeAndFlags = buffer.get();
+        type = (byte) (typeAndFlags & ~DERIVED);
+        derived = (typeAndFlags & DERIVED) != 0;
+        direction.set(buffer.get() / QUANTUM, buffer.get() / QUANTUM, buffer.get() / QUANTUM);
+        hasDirection = direction.lengthSquared() > 0;
+        if (hasDirection) {
+            direction.normalize();
+        }
+        timeMs = buffer.getInt();
+        casterId = buffer.getInt();
+        value = buffer.getInt();
+    }
+
+    private static byte quantise(float component) {
+        return (byte) Math.round(Math.max(-1f, Math.min(1f, component)) * QUANTUM);
+    }
+}
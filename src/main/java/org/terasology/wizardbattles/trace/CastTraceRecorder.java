@@ -0,0 +1,200 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.EventPriority;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.console.commandSystem.annotations.CommandParam;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.wizardbattles.casting.BeginCastingEvent;
+import org.terasology.wizardbattles.casting.CompleteCastingEvent;
+import org.terasology.wizardbattles.mana.ConsumeManaEvent;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the casting events passing through the server into a binary trace, for the {@link CastTraceReplayer} to
+ * play back later as a repeatable load test. See {@link CastTraceRecord} for the format.
+ * <p>
+ * Records are collected in a direct buffer and written out through a file channel whenever it fills, so recording
+ * costs one buffer write per event. While not recording, each handler returns straight away. The stand-in casters of a
+ * trace being replayed at the same time are not recorded.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class CastTraceRecorder extends BaseComponentSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(CastTraceRecorder.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @In
+    private Time time;
+
+    @In
+    private CastTraceReplayer replayer;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CastTraceRecord record = new CastTraceRecord();
+    /**
+     * The last completion of each caster, as its spell id and game time. A SpellCastEvent is derived from it only if it
+     * is for the same spell at the same game time, as the completion's own cast is sent while the completion is
+     * handled.
+     */
+    private final Map<EntityRef, Long> completed = new HashMap<>();
+    private FileChannel channel;
+    private Path file;
+    private long startedAt;
+    private long recordCount;
+
+    @Override
+    public void shutdown() {
+        stop();
+    }
+
+    @Command(shortDescription = "Starts recording cast events to a trace file in the home directory",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String startCastTrace(@CommandParam("name") String name) {
+        if (channel != null) {
+            return "Already recording to " + file;
+        }
+        Path target = CastTraceFiles.resolve(name);
+        try {
+            Files.createDirectories(target.getParent());
+            channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Failed to open cast trace {}", target, e);
+            return "Failed to open " + target + ": " + e.getMessage();
+        }
+        file = target;
+        startedAt = time.getGameTimeInMs();
+        recordCount = 0;
+        completed.clear();
+        buffer.clear();
+        buffer.putInt(CastTraceFiles.MAGIC);
+        buffer.putInt(CastTraceFiles.VERSION);
+        return "Recording cast events to " + file;
+    }
+
+    @Command(shortDescription = "Stops recording cast events",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String stopCastTrace() {
+        if (channel == null) {
+            return "Not recording";
+        }
+        Path written = file;
+        long count = recordCount;
+        stop();
+        return "Recorded " + count + " events to " + written;
+    }
+
+    /**
+     * @return true while a trace is being recorded
+     */
+    public boolean isRecording() {
+        return channel != null;
+    }
+
+    @ReceiveEvent(priority = EventPriority.PRIORITY_CRITICAL)
+    public void onBeginCasting(BeginCastingEvent event, EntityRef caster) {
+        if (isRecording(caster)) {
+            append(CastTraceRecord.BEGIN_CASTING, caster, event.getSpellId(), event.getDirection(), false);
+        }
+    }
+
+    @ReceiveEvent(priority = EventPriority.PRIORITY_CRITICAL)
+    public void onConsumeMana(ConsumeManaEvent event, EntityRef caster) {
+        if (isRecording(caster)) {
+            append(CastTraceRecord.CONSUME_MANA, caster, event.getAmount(), null, false);
+        }
+    }
+
+    @ReceiveEvent(priority = EventPriority.PRIORITY_CRITICAL)
+    public void onCompleteCasting(CompleteCastingEvent event, EntityRef caster) {
+        if (isRecording(caster)) {
+            completed.put(caster, completionKey(event.getSpellId()));
+            append(CastTraceRecord.COMPLETE_CASTING, caster, event.getSpellId(), event.getDirection(), true);
+        }
+    }
+
+    @ReceiveEvent(priority = EventPriority.PRIORITY_CRITICAL)
+    public void onSpellCast(SpellCastEvent event, EntityRef caster) {
+        if (isRecording(caster)) {
+            Long completion = completed.get(caster);
+            boolean derived = completion != null && completion == completionKey(event.getSpellId());
+            if (derived) {
+                completed.remove(caster);
+            }
+            append(CastTraceRecord.SPELL_CAST, caster, event.getSpellId(), event.getDirection(), derived);
+        }
+    }
+
+    private boolean isRecording(EntityRef caster) {
+        return channel != null && !replayer.isReplaying(caster);
+    }
+
+    private long completionKey(int spellId) {
+        return (time.getGameTimeInMs() << 32) ^ (spellId & 0xFFFFFFFFL);
+    }
+
+    private void append(byte type, EntityRef caster, int value, Vector3f direction, boolean derived) {
+        record.set(type, (int) (time.getGameTimeInMs() - startedAt), (int) caster.getId(), value, direction);
+        record.derived = derived;
+        if (buffer.remaining() < CastTraceRecord.SIZE) {
+            flush();
+        }
+        record.write(buffer);
+        recordCount++;
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write cast trace {}, recording stopped", file, e);
+            buffer.clear();
+            close();
+            return;
+        }
+        buffer.clear();
+    }
+
+    private void stop() {
+        if (channel != null) {
+            flush();
+            close();
+        }
+    }
+
+    private void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close cast trace {}", file, e);
+        }
+        channel = null;
+        completed.clear();
+    }
+}
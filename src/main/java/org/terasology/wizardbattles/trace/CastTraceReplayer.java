@@ -0,0 +1,292 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.console.commandSystem.annotations.CommandParam;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.logic.permission.PermissionManager;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.utilities.Assets;
+import org.terasology.wizardbattles.casting.BeginCastingEvent;
+import org.terasology.wizardbattles.mana.ConsumeManaEvent;
+import org.terasology.wizardbattles.spell.SpellCastEvent;
+import org.terasology.wizardbattles.spell.SpellDefinition;
+import org.terasology.wizardbattles.spell.SpellRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Plays a trace recorded by the {@link CastTraceRecorder} back into the module's systems, at the speed it was recorded,
+ * some multiple of it, or as fast as the server will take it.
+ * <p>
+ * Each caster in the trace is stood in for by entities made from the <code>WizardBattles:replayCaster</code> prefab,
+ * lined up in a grid above the origin. Only the events that started something are replayed: casts begun, mana spent
+ * and spells cast directly. Completions, and the spell casts that followed them, are left for the systems to produce
+ * again. Spell ids are stored in the trace, so it should be replayed with the same set of spells it was recorded with.
+ * <p>
+ * Game time is not sped up, so a single stand-in replaying a caster's casts faster than they were made would have
+ * most of them turned away for still casting or cooling down. Instead a caster is stood in for by as many entities as
+ * the speed, rounded up, taking its casts in turn. Each stand-in then casts no faster than the recorded caster did,
+ * and together they make the recorded traffic at the chosen multiple.
+ * <p>
+ * Replaying as fast as possible feeds up to {@link #MAX_EVENTS_PER_UPDATE} events into every update, whatever their
+ * recorded times, with {@link #MAX_SPEED} stand-ins per caster. Unless the trace is sparse that is more than the
+ * stand-ins can cast, so many casts are turned away for still casting or cooling down, and only the casts accepted
+ * go on to complete and launch. This mode measures how the server copes with a flood of cast requests, not how it
+ * handles the recorded traffic.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(CastTraceReplayer.class)
+public class CastTraceReplayer extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    private static final Logger logger = LoggerFactory.getLogger(CastTraceReplayer.class);
+
+    /**
+     * The fastest a trace can be replayed, as a multiple of the recorded speed
+     */
+    public static final int MAX_SPEED = 32;
+
+    /**
+     * The most events replayed in a single update when replaying as fast as possible
+     */
+    public static final int MAX_EVENTS_PER_UPDATE = 5000;
+
+    private static final String CASTER_PREFAB = "WizardBattles:replayCaster";
+    private static final int CASTERS_PER_ROW = 16;
+    private static final float CASTER_SPACING = 4f;
+    private static final float CASTER_HEIGHT = 80f;
+
+    @In
+    private Time time;
+
+    @In
+    private EntityManager entityManager;
+
+    @In
+    private SpellRegistry spellRegistry;
+
+    private final CastTraceRecord record = new CastTraceRecord();
+    /**
+     * The stand-ins, by recorded caster id and lane
+     */
+    private final Map<Long, EntityRef> casters = new HashMap<>();
+    private final Set<EntityRef> standIns = new HashSet<>();
+    /**
+     * The lane each recorded caster's current cast is replayed on, and the type of its last replayed event
+     */
+    private final Map<Integer, Lane> lanes = new HashMap<>();
+    private int laneCount;
+    private CastTraceReader reader;
+    private Prefab casterPrefab;
+    private boolean recordPending;
+    /**
+     * How many trace milliseconds pass per game millisecond, or 0 to replay as fast as possible
+     */
+    private float speed;
+    private long replayStartedAt;
+    private long wallStartedAt;
+    private long eventsReplayed;
+
+    @Override
+    public void shutdown() {
+        finish();
+    }
+
+    @Command(shortDescription = "Replays a cast trace from the home directory",
+            helpText = "Speed is a multiple of the recorded speed, such as 1 or 10, up to " + MAX_SPEED
+                    + ", or max to replay as fast as possible, with many casts turned away",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String replayCastTrace(@CommandParam("name") String name,
+                                  @CommandParam(value = "speed", required = false) String speedName) {
+        if (reader != null) {
+            return "Already replaying";
+        }
+        float replaySpeed;
+        if (speedName == null) {
+            replaySpeed = 1f;
+        } else if (speedName.equalsIgnoreCase("max")) {
+            replaySpeed = 0f;
+        } else {
+            try {
+                replaySpeed = Float.parseFloat(speedName);
+            } catch (NumberFormatException e) {
+                return "Speed must be a number or max";
+            }
+            if (replaySpeed <= 0 || replaySpeed > MAX_SPEED) {
+                return "Speed must be more than 0 and at most " + MAX_SPEED;
+            }
+        }
+        Optional<Prefab> prefab = Assets.getPrefab(CASTER_PREFAB);
+        if (!prefab.isPresent()) {
+            return "Missing prefab " + CASTER_PREFAB;
+        }
+        Path file = CastTraceFiles.resolve(name);
+        try {
+            reader = new CastTraceReader(file);
+        } catch (IOException e) {
+            logger.error("Failed to open cast trace {}", file, e);
+            return "Failed to open " + file + ": " + e.getMessage();
+        }
+        casterPrefab = prefab.get();
+        speed = replaySpeed;
+        laneCount = replaySpeed > 0 ? (int) Math.ceil(replaySpeed) : MAX_SPEED;
+        recordPending = false;
+        replayStartedAt = time.getGameTimeInMs();
+        wallStartedAt = System.nanoTime();
+        eventsReplayed = 0;
+        return "Replaying " + file;
+    }
+
+    @Command(shortDescription = "Stops replaying a cast trace",
+            runOnServer = true, requiredPermission = PermissionManager.DEBUG_PERMISSION)
+    public String stopCastReplay() {
+        if (reader == null) {
+            return "Not replaying";
+        }
+        long replayed = eventsReplayed;
+        finish();
+        return "Stopped after " + replayed + " events";
+    }
+
+    @Override
+    public void update(float delta) {
+        if (reader == null) {
+            return;
+        }
+        long due = speed > 0 ? (long) ((time.getGameTimeInMs() - replayStartedAt) * speed) : Long.MAX_VALUE;
+        int budget = speed > 0 ? Integer.MAX_VALUE : MAX_EVENTS_PER_UPDATE;
+        try {
+            while (budget > 0) {
+                if (!recordPending) {
+                    if (!reader.next(record)) {
+                        logger.info("Replayed {} cast events in {} ms", eventsReplayed,
+                                (System.nanoTime() - wallStartedAt) / 1_000_000);
+                        finish();
+                        return;
+                    }
+                    recordPending = true;
+                }
+                if (record.timeMs > due) {
+                    return;
+                }
+                replay(record);
+                recordPending = false;
+                budget--;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read cast trace, replay stopped", e);
+            finish();
+        }
+    }
+
+    private void replay(CastTraceRecord event) {
+        if (event.derived || event.type == CastTraceRecord.COMPLETE_CASTING) {
+            return;
+        }
+        EntityRef caster = getCaster(event.casterId, getLane(event));
+        Vector3f direction = event.hasDirection ? new Vector3f(event.direction) : null;
+        switch (event.type) {
+            case CastTraceRecord.BEGIN_CASTING:
+                caster.send(new BeginCastingEvent(event.value, direction, -1));
+                break;
+            case CastTraceRecord.CONSUME_MANA:
+                caster.send(new ConsumeManaEvent(event.value));
+                break;
+            case CastTraceRecord.SPELL_CAST:
+                SpellDefinition spell = spellRegistry.get(event.value);
+                if (spell != null && direction != null) {
+                    caster.send(new SpellCastEvent(caster, getCasterPosition(caster), direction, spell));
+                }
+                break;
+            default:
+                return;
+        }
+        eventsReplayed++;
+    }
+
+    /**
+     * @return true if the entity is standing in for a caster in the trace being replayed
+     */
+    public boolean isReplaying(EntityRef entity) {
+        return standIns.contains(entity);
+    }
+
+    /**
+     * Moves a recorded caster on to its next lane when a new cast starts: mana being spent, a cast begun without mana
+     * spent just before it, or a spell cast directly. The events of one cast stay on the same lane.
+     */
+    private int getLane(CastTraceRecord event) {
+        Lane lane = lanes.get(event.casterId);
+        if (lane == null) {
+            lane = new Lane();
+            lanes.put(event.casterId, lane);
+        } else if (event.type != CastTraceRecord.BEGIN_CASTING || lane.lastType != CastTraceRecord.CONSUME_MANA) {
+            lane.index = (lane.index + 1) % laneCount;
+        }
+        lane.lastType = event.type;
+        return lane.index;
+    }
+
+    private EntityRef getCaster(int casterId, int lane) {
+        long key = ((long) casterId << 8) | lane;
+        EntityRef caster = casters.get(key);
+        if (caster == null || !caster.exists()) {
+            int index = casters.size();
+            Vector3f position = new Vector3f((index % CASTERS_PER_ROW) * CASTER_SPACING, CASTER_HEIGHT,
+                    (index / CASTERS_PER_ROW) * CASTER_SPACING);
+            caster = entityManager.create(casterPrefab, position);
+            caster.setPersistent(false);
+            casters.put(key, caster);
+            standIns.add(caster);
+        }
+        return caster;
+    }
+
+    private Vector3f getCasterPosition(EntityRef caster) {
+        LocationComponent location = caster.getComponent(LocationComponent.class);
+        return location != null ? location.getWorldPosition() : new Vector3f();
+    }
+
+    private void finish() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close cast trace", e);
+            }
+            reader = null;
+        }
+        for (EntityRef caster : casters.values()) {
+            if (caster.exists()) {
+                caster.destroy();
+            }
+        }
+        casters.clear();
+        standIns.clear();
+        lanes.clear();
+    }
+
+    private static final class Lane {
+        private int index;
+        private byte lastType;
+    }
+}
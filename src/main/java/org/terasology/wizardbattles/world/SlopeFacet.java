@@ -0,0 +1,73 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.math.Region3i;
+import org.terasology.world.generation.Border3D;
+import org.terasology.world.generation.facets.base.BaseFacet2D;
+
+/**
+ * Stores, for each column, how the surface slopes towards each of its eight neighbours, two bits to a direction. A
+ * column whose bits are all zero is level with every neighbour.
+ */
+public class SlopeFacet extends BaseFacet2D {
+
+    public static final int LEVEL = 0;
+    public static final int UP = 1;
+    public static final int DOWN = 2;
+    /**
+     * The neighbour is outside the facet
+     */
+    public static final int EDGE = 3;
+
+    public static final int NORTH_WEST = 0;
+    public static final int NORTH = 1;
+    public static final int NORTH_EAST = 2;
+    public static final int EAST = 3;
+    public static final int SOUTH_EAST = 4;
+    public static final int SOUTH = 5;
+    public static final int SOUTH_WEST = 6;
+    public static final int WEST = 7;
+
+    /**
+     * The column offsets of the eight directions, in the order of their bits
+     */
+    static final int[] DIRECTION_X = {-1, 0, 1, 1, 1, 0, -1, -1};
+    static final int[] DIRECTION_Z = {-1, -1, -1, 0, 1, 1, 1, 0};
+
+    private final short[] data;
+
+    public SlopeFacet(Region3i targetRegion, Border3D border) {
+        super(targetRegion, border);
+        data = new short[getRelativeRegion().area()];
+    }
+
+    /**
+     * @return the slopes of the column at the given position relative to the region
+     */
+    public short get(int x, int z) {
+        return data[getRelativeIndex(x, z)];
+    }
+
+    /**
+     * @return the slopes of the column at the given world position
+     */
+    public short getWorld(int x, int z) {
+        return data[getWorldIndex(x, z)];
+    }
+
+    public void set(int x, int z, short slopes) {
+        data[getRelativeIndex(x, z)] = slopes;
+    }
+
+    public void setWorld(int x, int z, short slopes) {
+        data[getWorldIndex(x, z)] = slopes;
+    }
+
+    /**
+     * @return the slope in one direction, {@link #LEVEL}, {@link #UP}, {@link #DOWN} or {@link #EDGE}
+     */
+    public static int getSlope(short slopes, int direction) {
+        return (slopes >> (direction * 2)) & 3;
+    }
+}
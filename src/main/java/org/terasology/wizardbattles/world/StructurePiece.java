@@ -0,0 +1,75 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.math.geom.Vector3i;
+
+/**
+ * A structure placed in the world: its generator, the world position of its origin, and the box of world positions
+ * it may write blocks to.
+ */
+public final class StructurePiece {
+
+    private final StructureGenerator generator;
+    private final Vector3i origin;
+    private final Vector3i min;
+    private final Vector3i max;
+
+    /**
+     * @param origin the world position the generator is placed at
+     * @param min the lowest world position the generator may write to
+     * @param max the highest world position the generator may write to
+     */
+    public StructurePiece(StructureGenerator generator, Vector3i origin, Vector3i min, Vector3i max) {
+        this.generator = generator;
+        this.origin = origin;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @return a piece for the blueprint placed with its origin at the given world position
+     */
+    public static StructurePiece of(TowerBlueprint blueprint, int x, int y, int z) {
+        Vector3i min = new Vector3i(x + blueprint.getMinX(), y + blueprint.getMinY(), z + blueprint.getMinZ());
+        Vector3i max = new Vector3i(min.x + blueprint.getSizeX() - 1, min.y + blueprint.getSizeY() - 1,
+                min.z + blueprint.getSizeZ() - 1);
+        return new StructurePiece(blueprint, new Vector3i(x, y, z), min, max);
+    }
+
+    public StructureGenerator getGenerator() {
+        return generator;
+    }
+
+    public Vector3i getOrigin() {
+        return origin;
+    }
+
+    public Vector3i getMin() {
+        return min;
+    }
+
+    public Vector3i getMax() {
+        return max;
+    }
+
+    /**
+     * Pieces are the same if their generator is placed at the same position, as when a cell is placed again.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StructurePiece)) {
+            return false;
+        }
+        StructurePiece other = (StructurePiece) o;
+        return generator == other.generator && origin.equals(other.origin);
+    }
+
+    @Override
+    public int hashCode() {
+        return origin.hashCode();
+    }
+}
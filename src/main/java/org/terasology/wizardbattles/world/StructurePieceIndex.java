@@ -0,0 +1,131 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.math.Region3i;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Finds the structure pieces that reach into an area of the world, so that every chunk a structure overlaps writes its
+ * own slice of it.
+ * <p>
+ * The world is divided into a grid of columns of cells, each holding at most one structure. Where a cell's structure
+ * goes is worked out by a {@link Placement} from the seed and that cell's terrain alone, so every chunk finds the same
+ * structures whichever order they are generated in, and the placing no longer depends on which region is generated
+ * first.
+ * <p>
+ * Cells are placed when first asked for, and the result kept, as placing one means searching its terrain. Only the
+ * most recently used cells are kept: one that has been dropped is placed again, in the same place, if it is needed
+ * again.
+ * <p>
+ * Regions are generated on several threads at once. Two threads may place the same cell together, in which case they
+ * find the same piece and the first is kept.
+ */
+public class StructurePieceIndex {
+
+    /**
+     * Works out the structure anchored in a cell.
+     */
+    @FunctionalInterface
+    public interface Placement {
+        /**
+         * @return the piece anchored in the cell, or null if it has none. Its box must stay within the cell's columns.
+         */
+        StructurePiece place(int cellX, int cellZ);
+    }
+
+    private final int cellSizeX;
+    private final int cellSizeZ;
+
+    /**
+     * The piece placed in each cell, or empty if it has none, least recently used first
+     */
+    private final Map<Long, Optional<StructurePiece>> pieceByCell;
+
+    /**
+     * @param cellSizeX the width of a cell, in blocks
+     * @param cellSizeZ the depth of a cell, in blocks
+     * @param capacity the number of cells to keep
+     */
+    public StructurePieceIndex(int cellSizeX, int cellSizeZ, int capacity) {
+        this.cellSizeX = cellSizeX;
+        this.cellSizeZ = cellSizeZ;
+        this.pieceByCell = new LinkedHashMap<Long, Optional<StructurePiece>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Optional<StructurePiece>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up the cells whose columns overlap the area, placing any that are not known yet.
+     *
+     * @return the pieces whose box overlaps the area
+     */
+    public List<StructurePiece> getPieces(Region3i area, Placement placement) {
+        List<StructurePiece> pieces = new ArrayList<>();
+        int minCellX = Math.floorDiv(area.minX(), cellSizeX);
+        int minCellZ = Math.floorDiv(area.minZ(), cellSizeZ);
+        int maxCellX = Math.floorDiv(area.maxX(), cellSizeX);
+        int maxCellZ = Math.floorDiv(area.maxZ(), cellSizeZ);
+        for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                StructurePiece piece = getPiece(cellX, cellZ, placement);
+                if (piece != null && overlaps(piece, area)) {
+                    pieces.add(piece);
+                }
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * @return the number of cells kept
+     */
+    public int size() {
+        synchronized (pieceByCell) {
+            return pieceByCell.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (pieceByCell) {
+            pieceByCell.clear();
+        }
+    }
+
+    private StructurePiece getPiece(int cellX, int cellZ, Placement placement) {
+        Long key = cellKey(cellX, cellZ);
+        Optional<StructurePiece> piece;
+        synchronized (pieceByCell) {
+            piece = pieceByCell.get(key);
+        }
+        if (piece == null) {
+            // Placed outside the lock, as it searches the cell's terrain
+            Optional<StructurePiece> placed = Optional.ofNullable(placement.place(cellX, cellZ));
+            synchronized (pieceByCell) {
+                piece = pieceByCell.putIfAbsent(key, placed);
+            }
+            if (piece == null) {
+                piece = placed;
+            }
+        }
+        return piece.orElse(null);
+    }
+
+    private static boolean overlaps(StructurePiece piece, Region3i area) {
+        return piece.getMin().x <= area.maxX() && piece.getMax().x >= area.minX()
+                && piece.getMin().y <= area.maxY() && piece.getMax().y >= area.minY()
+                && piece.getMin().z <= area.maxZ() && piece.getMax().z >= area.minZ();
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
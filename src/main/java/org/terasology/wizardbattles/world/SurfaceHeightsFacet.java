@@ -0,0 +1,44 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.math.Region3i;
+import org.terasology.world.generation.Border3D;
+import org.terasology.world.generation.facets.base.BaseFacet2D;
+
+/**
+ * Stores the height of the surface of each column, rounded down to a block, so that generators which look at the
+ * surface of many columns can read it as an int without going through the {@link
+ * org.terasology.world.generation.facets.ElevationFacet} each time.
+ */
+public class SurfaceHeightsFacet extends BaseFacet2D {
+
+    private final int[] data;
+
+    public SurfaceHeightsFacet(Region3i targetRegion, Border3D border) {
+        super(targetRegion, border);
+        data = new int[getRelativeRegion().area()];
+    }
+
+    /**
+     * @return the surface height of the column at the given position relative to the region
+     */
+    public int get(int x, int z) {
+        return data[getRelativeIndex(x, z)];
+    }
+
+    /**
+     * @return the surface height of the column at the given world position
+     */
+    public int getWorld(int x, int z) {
+        return data[getWorldIndex(x, z)];
+    }
+
+    public void set(int x, int z, int height) {
+        data[getRelativeIndex(x, z)] = height;
+    }
+
+    public void setWorld(int x, int z, int height) {
+        data[getWorldIndex(x, z)] = height;
+    }
+}
@@ -0,0 +1,75 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.math.TeraMath;
+import org.terasology.math.geom.Rect2i;
+import org.terasology.world.generation.Border3D;
+import org.terasology.world.generation.Facet;
+import org.terasology.world.generation.FacetProviderPlugin;
+import org.terasology.world.generation.GeneratingRegion;
+import org.terasology.world.generation.Produces;
+import org.terasology.world.generation.Requires;
+import org.terasology.world.generation.facets.ElevationFacet;
+import org.terasology.world.generator.plugin.RegisterPlugin;
+
+/**
+ * Works out the surface height and slopes of every column once per region, for the {@link SurfaceHeightsFacet} and
+ * {@link SlopeFacet}.
+ * <p>
+ * The heights are taken from the {@link ElevationFacet}, which does not depend on the region's range of heights, so
+ * that every region in a column of chunks sees the same surface.
+ * <p>
+ * Both facets cover the larger of the two borders asked for, so that the slopes are taken from the same heights.
+ * Slopes towards columns outside that area are {@link SlopeFacet#EDGE}.
+ */
+@RegisterPlugin
+@Produces({SurfaceHeightsFacet.class, SlopeFacet.class})
+@Requires(@Facet(ElevationFacet.class))
+public class SurfaceShapeProvider implements FacetProviderPlugin {
+
+    @Override
+    public void setSeed(long seed) {
+    }
+
+    @Override
+    public void process(GeneratingRegion region) {
+        Border3D heightsBorder = region.getBorderForFacet(SurfaceHeightsFacet.class);
+        Border3D slopeBorder = region.getBorderForFacet(SlopeFacet.class);
+        Border3D border = heightsBorder.getSides() >= slopeBorder.getSides() ? heightsBorder : slopeBorder;
+        SurfaceHeightsFacet heights = new SurfaceHeightsFacet(region.getRegion(), border);
+        SlopeFacet slopes = new SlopeFacet(region.getRegion(), border);
+
+        ElevationFacet elevationFacet = region.getRegionFacet(ElevationFacet.class);
+        Rect2i area = heights.getWorldRegion();
+        for (int z = area.minY(); z <= area.maxY(); ++z) {
+            for (int x = area.minX(); x <= area.maxX(); ++x) {
+                heights.setWorld(x, z, TeraMath.floorToInt(elevationFacet.getWorld(x, z)));
+            }
+        }
+
+        for (int z = area.minY(); z <= area.maxY(); ++z) {
+            for (int x = area.minX(); x <= area.maxX(); ++x) {
+                int height = heights.getWorld(x, z);
+                int bits = 0;
+                for (int direction = 0; direction < 8; direction++) {
+                    int nX = x + SlopeFacet.DIRECTION_X[direction];
+                    int nZ = z + SlopeFacet.DIRECTION_Z[direction];
+                    int slope;
+                    if (!area.contains(nX, nZ)) {
+                        slope = SlopeFacet.EDGE;
+                    } else {
+                        int neighbour = heights.getWorld(nX, nZ);
+                        slope = neighbour > height ? SlopeFacet.UP
+                                : neighbour < height ? SlopeFacet.DOWN : SlopeFacet.LEVEL;
+                    }
+                    bits |= slope << (direction * 2);
+                }
+                slopes.setWorld(x, z, (short) bits);
+            }
+        }
+
+        region.setRegionFacet(SurfaceHeightsFacet.class, heights);
+        region.setRegionFacet(SlopeFacet.class, slopes);
+    }
+}
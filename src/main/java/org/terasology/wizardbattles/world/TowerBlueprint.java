@@ -0,0 +1,147 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.structureTemplates.components.SpawnBlockRegionsComponent;
+import org.terasology.utilities.random.Random;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockManager;
+import org.terasology.world.block.BlockRegions;
+import org.terasology.world.chunks.CoreChunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A structure's block regions compiled into a box of blocks, so that it can be placed without going back to its
+ * prefab. Each position in the box holds an index into a palette of the blocks used, or zero where no region fills
+ * it. Regions filled later override those filled earlier, as they would when placed one after another.
+ * <p>
+ * When generating, only the part of the box that overlaps the chunk is written, so no position needs to be checked
+ * against the chunk's bounds.
+ */
+public class TowerBlueprint implements StructureGenerator {
+
+    private static final short UNSET = 0;
+
+    /**
+     * The blocks used, indexed from 1
+     */
+    private final Block[] palette;
+    private final short[] blocks;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    /**
+     * @param palette the blocks used, with null at index 0
+     * @param blocks the palette index of each position in the box, x fastest, then z, then y
+     */
+    TowerBlueprint(Block[] palette, short[] blocks, int minX, int minY, int minZ, int sizeX, int sizeY, int sizeZ) {
+        this.palette = palette;
+        this.blocks = blocks;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+    }
+
+    /**
+     * Compiles the regions to fill, whose positions are relative to the structure's origin.
+     *
+     * @return the blueprint, or null if there are no blocks to place
+     */
+    public static TowerBlueprint compile(SpawnBlockRegionsComponent spawnBlockRegions) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        for (SpawnBlockRegionsComponent.RegionToFill regionToFill : spawnBlockRegions.regionsToFill) {
+            for (org.joml.Vector3i pos : BlockRegions.iterable(regionToFill.region)) {
+                minX = Math.min(minX, pos.x);
+                minY = Math.min(minY, pos.y);
+                minZ = Math.min(minZ, pos.z);
+                maxX = Math.max(maxX, pos.x);
+                maxY = Math.max(maxY, pos.y);
+                maxZ = Math.max(maxZ, pos.z);
+            }
+        }
+        if (minX > maxX) {
+            return null;
+        }
+
+        int sizeX = maxX - minX + 1;
+        int sizeY = maxY - minY + 1;
+        int sizeZ = maxZ - minZ + 1;
+        short[] blocks = new short[sizeX * sizeY * sizeZ];
+        List<Block> palette = new ArrayList<>();
+        palette.add(null);
+        for (SpawnBlockRegionsComponent.RegionToFill regionToFill : spawnBlockRegions.regionsToFill) {
+            int paletteIndex = palette.indexOf(regionToFill.blockType);
+            if (paletteIndex < 0) {
+                paletteIndex = palette.size();
+                palette.add(regionToFill.blockType);
+            }
+            for (org.joml.Vector3i pos : BlockRegions.iterable(regionToFill.region)) {
+                blocks[((pos.y - minY) * sizeZ + pos.z - minZ) * sizeX + pos.x - minX] = (short) paletteIndex;
+            }
+        }
+        return new TowerBlueprint(palette.toArray(new Block[0]), blocks, minX, minY, minZ, sizeX, sizeY, sizeZ);
+    }
+
+    /**
+     * @return the lowest corner of the box, relative to the structure's origin
+     */
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    @Override
+    public void generate(BlockManager blockManager, CoreChunk view, Random rand, int posX, int posY, int posZ) {
+        // The part of the box inside the chunk, relative to the box
+        int fromX = Math.max(0, -(posX + minX));
+        int fromY = Math.max(0, -(posY + minY));
+        int fromZ = Math.max(0, -(posZ + minZ));
+        int toX = Math.min(sizeX, view.getChunkSizeX() - (posX + minX));
+        int toY = Math.min(sizeY, view.getChunkSizeY() - (posY + minY));
+        int toZ = Math.min(sizeZ, view.getChunkSizeZ() - (posZ + minZ));
+        for (int y = fromY; y < toY; ++y) {
+            for (int z = fromZ; z < toZ; ++z) {
+                int index = (y * sizeZ + z) * sizeX + fromX;
+                for (int x = fromX; x < toX; ++x, ++index) {
+                    short block = blocks[index];
+                    if (block != UNSET) {
+                        view.setBlock(posX + minX + x, posY + minY + y, posZ + minZ + z, palette[block]);
+                    }
+                }
+            }
+        }
+    }
+}
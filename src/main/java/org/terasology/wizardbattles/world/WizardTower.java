@@ -1,11 +0,0 @@
-// Copyright 2020 The Terasology Foundation
-// SPDX-License-Identifier: Apache-2.0
-
-package org.terasology.wizardbattles.world;
-
-public class WizardTower {
-
-    public static final int BOTTOM = 2;
-    public static final int SIDES = 8;
-    public static final int TOP = 30;
-}
@@ -16,16 +16,49 @@
 package org.terasology.wizardbattles.world;
 
 import org.terasology.math.Region3i;
+import org.terasology.math.geom.Vector3i;
 import org.terasology.world.generation.Border3D;
 import org.terasology.world.generation.facets.base.SparseObjectFacet3D;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores where towers are placed, by the position of their origin, for those whose origin is within the region. The
+ * blocks of a tower may reach into other chunks, so the pieces of every tower that overlaps the region are also kept,
+ * for the rasterizer to write its slice of each.
+ */
 public class WizardTowerFacet extends SparseObjectFacet3D<StructureGenerator> {
 
+    private final Region3i targetRegion;
+    private final List<StructurePiece> pieces = new ArrayList<>();
+
     /**
      * @param targetRegion
      * @param border
      */
     public WizardTowerFacet(Region3i targetRegion, Border3D border) {
         super(targetRegion, border);
+        this.targetRegion = targetRegion;
+    }
+
+    /**
+     * Adds a tower whose blocks reach into the region, storing its origin too if that is within the region. Towers
+     * standing in a neighbouring region are stored by that region's facet instead.
+     */
+    public void addPiece(StructurePiece piece) {
+        pieces.add(piece);
+        Vector3i origin = piece.getOrigin();
+        if (targetRegion.encompasses(origin)) {
+            setWorld(origin, piece.getGenerator());
+        }
+    }
+
+    /**
+     * @return the pieces of the towers that overlap the region
+     */
+    public List<StructurePiece> getPieces() {
+        return Collections.unmodifiableList(pieces);
     }
 }
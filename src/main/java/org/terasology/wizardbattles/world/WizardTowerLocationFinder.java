@@ -1,509 +1,286 @@
-///*
-// * Copyright 2019 MovingBlocks
-// *
-// * Licensed under the Apache License, Version 2.0 (the "License");
-// * you may not use this file except in compliance with the License.
-// * You may obtain a copy of the License at
-// *
-// *      http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing, software
-// * distributed under the License is distributed on an "AS IS" BASIS,
-// * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-// * See the License for the specific language governing permissions and
-// * limitations under the License.
-// */
-//package org.terasology.wizardbattles.world;
-//
-//import org.slf4j.Logger;
-//import org.slf4j.LoggerFactory;
-//import org.terasology.biomesAPI.Biome;
-//import org.terasology.core.world.CoreBiome;
-//import org.terasology.core.world.generator.facets.BiomeFacet;
-//import org.terasology.entitySystem.prefab.Prefab;
-//import org.terasology.math.Region3i;
-//import org.terasology.math.TeraMath;
-//import org.terasology.math.geom.Vector2i;
-//import org.terasology.math.geom.Vector3i;
-//import org.terasology.structureTemplates.components.SpawnBlockRegionsComponent;
-//import org.terasology.utilities.Assets;
-//import org.terasology.world.block.Block;
-//import org.terasology.world.block.BlockRegion;
-//import org.terasology.world.block.BlockRegions;
-//import org.terasology.world.generation.GeneratingRegion;
-//import org.terasology.world.generation.facets.ElevationFacet;
-//import org.terasology.world.generation.facets.SeaLevelFacet;
-//
-//import java.util.ArrayList;
-//import java.util.Arrays;
-//import java.util.List;
-//import java.util.Optional;
-//import java.util.stream.Collectors;
-//import java.util.stream.Stream;
-//
-//public class WizardTowerLocationFinder {
-//
-//    private static final Logger logger = LoggerFactory.getLogger(WizardTowerLocationFinder.class);
-//    private static final int X_Z_EXTENTS_PLUS_MINUS = 7;
-//    private static final int Y_EXTENTS_PLUS = 17;
-//
-//    GeneratingRegion generatingRegion;
-//    StructureGenerator structureGenerator = (blockManager, view, rand, posX, posY, posZ) -> {
-//        Optional<Prefab> prefabOptional = Assets.getPrefab("WizardBattles:tower");
-//        if (prefabOptional.isPresent()) {
-//            Prefab prefab = prefabOptional.get();
-//            SpawnBlockRegionsComponent spawnBlockRegions = prefab.getComponent(SpawnBlockRegionsComponent.class);
-//            if (spawnBlockRegions != null) {
-//                Vector3i vector3i = view.chunkToWorldPosition(posX, posY, posZ);
-//                logger.info("Generating at {} (world center), {} {} {} {} (region relative center)",
-//                        vector3i, view.getRegion(), posX, posY, posZ);
-//                for (SpawnBlockRegionsComponent.RegionToFill regionToFill : spawnBlockRegions.regionsToFill) {
-//                    Block block = regionToFill.blockType;
-//
-//                    BlockRegion region = regionToFill.region;
-//                    // Block positions are specified relative to the centre of the tower for X and Z,
-//                    // and relative to the bottom for Y
-//                    for (org.joml.Vector3i pos : BlockRegions.iterable(region)) {
-//                        int relX = pos.x + posX;
-//                        int relY = pos.y + posY;
-//                        int relZ = pos.z + posZ;
-//                        view.setBlock(relX, relY, relZ, block);
-//                    }
-//                }
-//            }
-//        }
-//    };
-//    boolean print;
-//
-//    public WizardTowerLocationFinder(GeneratingRegion region) {
-//        this.generatingRegion = region;
-//    }
-//
-//    public void populateFacet(WizardTowerFacet facet) {
-//
-//        // We want to find places with "peak" like properties (a flat area with the land sloping away in most
-//        // directions). Also we'll find flat areas as large as possible and as high up as possible, even if the sides
-//        // slope upward. We also want to restrict ourselves to Plains, Mountains, or Snow biomes.
-//        ElevationFacet surface = generatingRegion.getRegionFacet(ElevationFacet.class);
-//        BiomeFacet biome = generatingRegion.getRegionFacet(BiomeFacet.class);
-//
-//        float minY = generatingRegion.getRegion().minY();
-//
-//        SeaLevelFacet seaLevelFacet = generatingRegion.getRegionFacet(SeaLevelFacet.class);
-//
-//        if (minY > seaLevelFacet.getSeaLevel()) {
-//            int maxX;
-//            int maxZ;
-//            // Is it the correct biome
-//            boolean biomeCheck = isCorrectBiome(generatingRegion.getRegion(), biome);
-//            if (biomeCheck) {
-//
-//                int startX = 0;
-//                int startZ = 0;
-//                Region3i region3i = generatingRegion.getRegion();
-//                maxX = region3i.sizeX();
-//                maxZ = region3i.sizeZ();
-//                // Construct a grid indicating whether the land rises or falls
-//                Grid grid = new Grid(maxX, maxZ, region3i);
-//                for (int x = startX; x < maxX; ++x) {
-//                    for (int z = startZ; z < maxZ; ++z) {
-//                        float height = surface.get(x, z);
-//                        grid.set(x, z, height);
-//                        int worldX = region3i.minX() + x;
-//                        int worldZ = region3i.minZ() + z;
-//                        Node node = grid.get(x, z);
-//                        node.worldX = worldX;
-//                        node.worldZ = worldZ;
-//                    }
-//                }
-//
-//                List<Candidate> regionCandidates = new ArrayList<>();
-//                for (int x = startX; x < maxX; ++x) {
-//                    for (int z = startZ; z < maxZ; ++z) {
-//                        Node node = grid.get(x, z);
-//                        if (node.levelAround()) {
-//                            int flatAround = findFlatAround(node, grid);
-//                            boolean suitable = hasPeakLikeProperties(x, z, node, grid);
-//                            boolean encompasses = willWhollyBeWithinRegion(node.worldX, node.y, node.worldZ);
-//                            if (encompasses) {
-//                                if (suitable) {
-//                                    regionCandidates.add(new Candidate(new Vector2i(node.worldX, node.worldZ), flatAround, node.y));
-//                                } else if (flatAround > 2 && node.y > 150) {
-//                                    logger.info("Flat and high around {} node {}", flatAround, node);
-//                                    regionCandidates.add(new Candidate(new Vector2i(node.worldX, node.worldZ), flatAround, node.y));
-//                                }
-//                            }
-//                        }
-//                    }
-//                }
-//                if (regionCandidates.size() > 0) {
-//                    logger.info("Found {} candidates", regionCandidates.size());
-//                    List<Candidate> candidateList = regionCandidates.stream()
-//                            .sorted((a, b) -> b.height - a.height)
-//                            .collect(Collectors.toList());
-//
-//                    Candidate first = candidateList.get(0);
-//                    Candidate last;
-//                    if (candidateList.size() > 1) {
-//                        last = candidateList.get(candidateList.size() - 1);
-//                        logger.info("highest {} {}, lowest {}",
-//                                first.location, first.height, last != null ? last.height : null);
-//                        if (first.height == last.height) {
-//                            List<Candidate> mostSpace = regionCandidates.stream()
-//                                    .sorted((a, b) -> b.flatAround - a.flatAround)
-//                                    .collect(Collectors.toList());
-//                            first = mostSpace.get(0);
-//                            last = mostSpace.get(mostSpace.size() - 1);
-//                            logger.info("mostSpace {} {}, least {}",
-//                                    first.location, first.flatAround, last != null ? last.flatAround : null);
-//                        }
-//                        facet.setWorld(first.location.x, first.height, first.location.y, structureGenerator);
-//                        logger.info("###############################");
-//                    } else {
-//                        logger.info("Only candidate loc {} h {} fa {}\n###############################",
-//                                first.location, first.height, first.flatAround);
-//                        facet.setWorld(first.location.x, first.height, first.location.y, structureGenerator);
-//                    }
-//                }
-//            }
-//        }
-//
-//        if (facet.getRelativeEntries().size() > 0) {
-//            logger.info("Region {} has {} towers", generatingRegion.getRegion(), facet.getWorldEntries().size());
-//            logger.info("At world {}, relative {}",
-//                    facet.getWorldEntries().keySet().stream().findFirst().get(),
-//                    facet.getRelativeEntries().keySet().stream().findFirst().get());
-//        }
-//        generatingRegion.setRegionFacet(WizardTowerFacet.class, facet);
-//    }
-//
-//    // Starting at a distance of one around the node in question, check if all blocks around have the same surface height,
-//    // If so continue expanding the area to check by one at a time.
-//    private int findFlatAround(Node node, Grid grid) {
-//        int y = node.y;
-//        int m = 1;
-//        boolean flat = true;
-//        do {
-//            // check along the 'top' and 'bottom' sides
-//            topBottom:
-//            for (int j = -m; j <= m; j += 2 * m) {
-//                for (int i = -m; i <= m; ++i) {
-//                    int nX = node.x + i;
-//                    int nZ = node.z + j;
-//                    if (nX > -1 && nX < grid.sizeX && nZ > -1 && nZ < grid.sizeZ) {
-//                        Node toCheck = grid.get(nX, nZ);
-//                        if (toCheck.y != node.y) {
-//                            flat = false;
-//                            break topBottom;
-//                        }
-//                    }
-//                }
-//            }
-//            // check along the 'left' and 'right' sides
-//            if (flat) {
-//                leftRight:
-//                for (int i = -m; i <= m; i += 2 * m) {
-//                    for (int j = -m; j <= m; ++j) {
-//                        int nX = node.x + i;
-//                        int nZ = node.z + j;
-//                        if (nX > -1 && nX < grid.sizeX && nZ > -1 && nZ < grid.sizeZ) {
-//                            Node toCheck = grid.get(nX, nZ);
-//                            if (toCheck.y != node.y) {
-//                                flat = false;
-//                                break leftRight;
-//                            }
-//                        }
-//                    }
-//                }
-//            }
-//            if (flat) {
-//                ++m;
-//            }
-//        } while (flat);
-//        return m - 1;
-//    }
-//
-//    private boolean hasPeakLikeProperties(int x, int z, Node node, Grid grid) {
-//        print = false;
-//        boolean allMatchTwo = allDirectionsAtMarginLessThanAngle(x, z, node, grid, 2, 1.0, 0);
-//        boolean allMatchSix = allDirectionsAtMarginLessThanAngle(x, z, node, grid, 5, -20.0, 2);
-//
-//        if (allMatchTwo && allMatchSix) {
-//            print = true;
-//            allDirectionsAtMarginLessThanAngle(x, z, node, grid, 5, -20.0, 3);
-//            return true;
-//        }
-//        return false;
-//    }
-//
-//    private boolean allDirectionsAtMarginLessThanAngle(int x, int z, Node node, Grid grid, int margin, double angle, int maxAboveAngle) {
-//        if (withinMargin(x, margin, grid.sizeX) && withinMargin(z, margin, grid.sizeZ)) {
-//            List<Node> neighboursAtDistance = grid.getNeighboursAtDistance(node, grid, margin);
-//            Stream<Double> doubleStream = neighboursAtDistance.stream()
-//                    .map(neighbour -> getAngleToNode(node, neighbour));
-//
-//            List<Double> doubles = doubleStream.collect(Collectors.toList());
-//            List<Double> greaterThanAngle = doubles.stream()
-//                    .filter(d -> d != null && d > angle).collect(Collectors.toList());
-//
-//            return greaterThanAngle.size() <= maxAboveAngle;
-//        }
-//        return false;
-//    }
-//
-//    private boolean withinMargin(int val, int margin, int size) {
-//        return val >= margin && val < (size - margin);
-//    }
-//
-//    private boolean greaterThan(double angle, double target) {
-//        return angle > target;
-//    }
-//
-//    private Double getAngleToNode(Node main, Node other) {
-//        int absX = Math.abs(main.x - other.x);
-//        int absZ = Math.abs(main.z - other.z);
-//        double adjacent = Math.hypot(absX, absZ);
-//        int opposite = other.y - main.y;
-//        if (adjacent > 0) {
-//            double angle = Math.atan(opposite / adjacent);
-//            return Math.toDegrees(angle);
-//        }
-//        return null;
-//    }
-//
-//    private boolean isCorrectBiome(Region3i region3i, BiomeFacet biomeFacet) {
-//        int minX = region3i.minX();
-//        int minZ = region3i.minZ();
-//        int maxX = region3i.maxX();
-//        int maxZ = region3i.maxZ();
-//        Biome biomeMin = biomeFacet.getWorld(minX, minZ);
-//        Biome biomeMax = biomeFacet.getWorld(maxX, maxZ);
-//        return (biomeMin.equals(CoreBiome.MOUNTAINS) && biomeMax.equals(CoreBiome.MOUNTAINS))
-//                || (biomeMin.equals(CoreBiome.SNOW) && biomeMax.equals(CoreBiome.SNOW))
-//                || (biomeMin.equals(CoreBiome.PLAINS) && biomeMax.equals(CoreBiome.PLAINS));
-//    }
-//
-//    private boolean willWhollyBeWithinRegion(int x, int y, int z) {
-//        int minX = x - X_Z_EXTENTS_PLUS_MINUS;
-//        int maxX = x + X_Z_EXTENTS_PLUS_MINUS;
-//        int minZ = z - X_Z_EXTENTS_PLUS_MINUS;
-//        int maxZ = z + X_Z_EXTENTS_PLUS_MINUS;
-//        int maxY = y + Y_EXTENTS_PLUS;
-//        return generatingRegion.getRegion().encompasses(minX, y, minZ)
-//                && generatingRegion.getRegion().encompasses(maxX, maxY, maxZ);
-//    }
-//
-//    public static class Candidate {
-//        Vector2i location;
-//        int flatAround;
-//        int height;
-//
-//        public Candidate(Vector2i location, int flatAround, int height) {
-//            this.location = location;
-//            this.flatAround = flatAround;
-//            this.height = height;
-//        }
-//    }
-//
-//    public static enum Direction {
-//        UP, DOWN, LEVEL, EDGE
-//    }
-//
-//    public static class Node {
-//
-//        private float threshold = 0.3f;
-//        private float upperThreshold = 0.7f;
-//
-//        public int x;
-//        public int z;
-//        public int y; // Y is already world coord
-//        public int worldX;
-//        public int worldZ;
-//        public float origY;
-//        public Direction north;
-//        public Direction northEast;
-//        public Direction east;
-//        public Direction southEast;
-//        public Direction south;
-//        public Direction southWest;
-//        public Direction west;
-//        public Direction northWest;
-//        public Node nodeN;
-//        public Node nodeNE;
-//        public Node nodeE;
-//        public Node nodeSE;
-//        public Node nodeS;
-//        public Node nodeSW;
-//        public Node nodeW;
-//        public Node nodeNW;
-//
-//        public Node(int x, int z, float y) {
-//            this.x = x;
-//            this.z = z;
-//            this.origY = y;
-//            this.y = TeraMath.floorToInt(y);
-//        }
-//
-//        /**
-//         * Is this node "higher" than the other Node
-//         * @param other
-//         * @return
-//         */
-//        public boolean isHigherThan(Node other) {
-//            return y - other.y > upperThreshold;
-//        }
-//
-//        /**
-//         * Is this node "lower" than the other Node
-//         * @param other
-//         * @return
-//         */
-//        public boolean isLowerThan(Node other) {
-//            return other.y - y > upperThreshold;
-//        }
-//
-//        public boolean levelAround() {
-//            return getAll().stream().allMatch(direction -> direction == Direction.LEVEL);
-//        }
-//
-//        public boolean levelOrDownAround() {
-//            return getAll().stream().allMatch(direction -> direction == Direction.LEVEL || direction == Direction.DOWN);
-//        }
-//
-//        public List<Direction> getAll() {
-//            return Arrays.asList(northWest, north, northEast, east, southEast, south, southWest, west);
-//        }
-//
-//        @Override
-//        public String toString() {
-//            String format = "[x %d (%d), y %d (%f), z %d (%d)]";
-//            return String.format(format, worldX, x, y, origY, worldZ, z);
-//        }
-//
-//    }
-//
-//    public static class Grid {
-//        public int sizeX;
-//        public int sizeZ;
-//
-//        public boolean print = false;
-//
-//        private Node[] data;
-//        private Region3i region;
-//
-//        public Grid(int sizeX, int sizeZ, Region3i region) {
-//            this.sizeX = sizeX;
-//            this.sizeZ = sizeZ;
-//            data = new Node[sizeX * sizeZ];
-//            this.region = region;
-//        }
-//
-//        public void set(int x, int z, float y) {
-//            Node node = new Node(x, z, y);
-//            set(x, z, node);
-//        }
-//
-//        public void set(int x, int z, Node node) {
-//            if (x == 0) {
-//                node.southWest = Direction.EDGE;
-//                node.south = Direction.EDGE;
-//                node.southEast = Direction.EDGE;
-//            }
-//            if (z == 0) {
-//                node.southWest = Direction.EDGE;
-//                node.west = Direction.EDGE;
-//                node.northWest = Direction.EDGE;
-//            }
-//            if (x == sizeX - 1) {
-//                node.northWest = Direction.EDGE;
-//                node.north = Direction.EDGE;
-//                node.northEast = Direction.EDGE;
-//            }
-//            if (z == sizeZ - 1) {
-//                node.northEast = Direction.EDGE;
-//                node.east = Direction.EDGE;
-//                node.southEast = Direction.EDGE;
-//            }
-//            if (x > 0 && z > 0) {
-//                Node nodeToSouthWest = get(x - 1, z - 1);
-//                node.nodeSW = nodeToSouthWest;
-//                nodeToSouthWest.nodeNE = node;
-//                if (node.isHigherThan(nodeToSouthWest)) {
-//                    node.southWest = Direction.DOWN;
-//                    nodeToSouthWest.northEast = Direction.UP;
-//                } else if (node.isLowerThan(nodeToSouthWest)) {
-//                    node.southWest = Direction.UP;
-//                    nodeToSouthWest.northEast = Direction.DOWN;
-//                } else {
-//                    node.southWest = Direction.LEVEL;
-//                    nodeToSouthWest.northEast = Direction.LEVEL;
-//                }
-//            }
-//            if (x > 0) {
-//                Node nodeToSouth = get(x - 1, z);
-//                node.nodeS = nodeToSouth;
-//                nodeToSouth.nodeN = node;
-//                if (node.isHigherThan(nodeToSouth)) {
-//                    node.south = Direction.DOWN;
-//                    nodeToSouth.north = Direction.UP;
-//                } else if (node.isLowerThan(nodeToSouth)) {
-//                    node.south = Direction.UP;
-//                    nodeToSouth.north = Direction.DOWN;
-//                } else {
-//                    node.south = Direction.LEVEL;
-//                    nodeToSouth.north = Direction.LEVEL;
-//                }
-//            }
-//            if (z > 0) {
-//                Node nodeToWest = get(x, z - 1);
-//                node.nodeW = nodeToWest;
-//                nodeToWest.nodeE = node;
-//                if (node.isHigherThan(nodeToWest)) {
-//                    node.west = Direction.DOWN;
-//                    nodeToWest.east = Direction.UP;
-//                } else if (node.isLowerThan(nodeToWest)) {
-//                    node.west = Direction.UP;
-//                    nodeToWest.east = Direction.DOWN;
-//                } else {
-//                    node.west = Direction.LEVEL;
-//                    nodeToWest.east = Direction.LEVEL;
-//                }
-//            }
-//            if (x > 0 && z < sizeZ - 1) {
-//                Node nodeToSouthEast = get(x - 1, z + 1);
-//                node.nodeSE = nodeToSouthEast;
-//                nodeToSouthEast.nodeNW = node;
-//                if (node.isHigherThan(nodeToSouthEast)) {
-//                    node.southEast = Direction.DOWN;
-//                    nodeToSouthEast.northWest = Direction.UP;
-//                } else if (node.isLowerThan(nodeToSouthEast)) {
-//                    node.southEast = Direction.UP;
-//                    nodeToSouthEast.northWest = Direction.DOWN;
-//                } else {
-//                    node.southEast = Direction.LEVEL;
-//                    nodeToSouthEast.northWest = Direction.LEVEL;
-//                }
-//            }
-//
-//            data[z * sizeZ + x] = node;
-//        }
-//
-//        public Node get(int x, int z) {
-//            return data[z * sizeZ + x];
-//        }
-//
-//        public List<Node> getNeighboursAtDistance(Node node, Grid grid, int distance) {
-//            List<Node> neighbours = new ArrayList<>();
-//            for (int deltaX = -distance; deltaX <= distance; deltaX += distance) {
-//                for (int deltaZ = -distance; deltaZ <= distance; deltaZ += distance) {
-//                    if (deltaX == 0 && deltaZ == 0) {
-//                        continue;
-//                    }
-//                    neighbours.add(grid.get(node.x + deltaX, node.z + deltaZ));
-//                }
-//            }
-//            return neighbours;
-//        }
-//
-//    }
-//}
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.terasology.biomesAPI.Biome;
+import org.terasology.core.world.CoreBiome;
+import org.terasology.core.world.generator.facets.BiomeFacet;
+import org.terasology.math.geom.Rect2i;
+import org.terasology.world.generation.GeneratingRegion;
+import org.terasology.world.generation.facets.SeaLevelFacet;
+
+import java.util.Arrays;
+
+/**
+ * Finds a place for a tower with "peak" like properties: a flat area with the land sloping away in most directions.
+ * Failing that, a flat area as large and as high up as possible, even if the sides slope upward. Only places above
+ * sea level in cells within the Plains, Mountains or Snow biomes are chosen.
+ * <p>
+ * The surface of a cell is copied from the {@link SurfaceHeightsFacet} and {@link SlopeFacet} into flat arrays, one
+ * entry per column. Neighbours are found by index arithmetic. The arrays are kept and
+ * reused for the next cell, so a finder should not be shared between threads.
+ * <p>
+ * Integral images (summed-area tables) of the heights and squared heights answer whether any rectangle of columns is
+ * flat in constant time: it is when its variance is zero. The distance to which the land is flat around every column
+ * is worked out from them in one pass over the cell, so the whole search is linear in the number of columns.
+ */
+public class WizardTowerLocationFinder {
+
+    private static final int X_Z_EXTENTS_PLUS_MINUS = 7;
+
+    /**
+     * The margins at which a peak is checked, the angle of elevation the columns there may not rise above, and how
+     * many of the eight may do so anyway
+     */
+    private static final int[] PEAK_MARGINS = {2, 5};
+    private static final double[] PEAK_ANGLES = {1.0, -20.0};
+    private static final int[] PEAK_MAX_ABOVE_ANGLE = {0, 2};
+
+    /**
+     * The rise at which a column is above the peak angle, for each margin and for the straight and diagonal
+     * directions: tan(angle) times the distance to the column
+     */
+    private static final double[][] PEAK_RISE_LIMITS = new double[PEAK_MARGINS.length][2];
+
+    static {
+        for (int i = 0; i < PEAK_MARGINS.length; i++) {
+            double tan = Math.tan(Math.toRadians(PEAK_ANGLES[i]));
+            PEAK_RISE_LIMITS[i][0] = tan * PEAK_MARGINS[i];
+            PEAK_RISE_LIMITS[i][1] = tan * PEAK_MARGINS[i] * Math.sqrt(2);
+        }
+    }
+
+    private int sizeX;
+    private int sizeZ;
+    private int[] heights = new int[0];
+    private short[] slopes = new short[0];
+    private int[] flatAround = new int[0];
+    /**
+     * The integral images, with one more row and column than the cell so that index 0 is the empty sum
+     */
+    private long[] heightSums = new long[0];
+    private long[] squareSums = new long[0];
+
+    /**
+     * Searches a cell of the region, whose columns must all be within it. Only the cell's own columns are looked at,
+     * and a tower placed there stays within them.
+     *
+     * @return the world position to place a tower at, or null if the cell has no suitable place
+     */
+    public WizardTowerProvider.Candidate find(GeneratingRegion generatingRegion, Rect2i cell) {
+        if (!isCorrectBiome(cell, generatingRegion.getRegionFacet(BiomeFacet.class))) {
+            return null;
+        }
+        int seaLevel = generatingRegion.getRegionFacet(SeaLevelFacet.class).getSeaLevel();
+
+        load(generatingRegion.getRegionFacet(SurfaceHeightsFacet.class),
+                generatingRegion.getRegionFacet(SlopeFacet.class), cell);
+
+        int highest = -1;
+        int lowestHeight = Integer.MAX_VALUE;
+        int mostSpace = -1;
+        int mostSpaceFlat = -1;
+        for (int z = 0; z < sizeZ; ++z) {
+            for (int x = 0; x < sizeX; ++x) {
+                int index = z * sizeX + x;
+                if (slopes[index] != 0) {
+                    // not level all around
+                    continue;
+                }
+                int y = heights[index];
+                if (y <= seaLevel || !withinMargin(x, X_Z_EXTENTS_PLUS_MINUS, sizeX)
+                        || !withinMargin(z, X_Z_EXTENTS_PLUS_MINUS, sizeZ)) {
+                    continue;
+                }
+                int flat = flatAround[index];
+                if (!hasPeakLikeProperties(x, z) && !(flat > 2 && y > 150)) {
+                    continue;
+                }
+                if (highest < 0 || y > heights[highest]) {
+                    highest = index;
+                }
+                lowestHeight = Math.min(lowestHeight, y);
+                if (flat > mostSpaceFlat) {
+                    mostSpace = index;
+                    mostSpaceFlat = flat;
+                }
+            }
+        }
+        if (highest < 0) {
+            return null;
+        }
+        // Prefer the highest place, or the one with the most flat land around it if they are all as high
+        int chosen = heights[highest] == lowestHeight ? mostSpace : highest;
+        WizardTowerProvider.Candidate candidate = new WizardTowerProvider.Candidate();
+        candidate.x = cell.minX() + chosen % sizeX;
+        candidate.y = heights[chosen];
+        candidate.z = cell.minY() + chosen / sizeX;
+        candidate.height = heights[chosen];
+        return candidate;
+    }
+
+    private void load(SurfaceHeightsFacet surfaceHeights, SlopeFacet slopeFacet, Rect2i cell) {
+        resize(cell.sizeX(), cell.sizeY());
+        for (int z = 0; z < sizeZ; ++z) {
+            for (int x = 0; x < sizeX; ++x) {
+                int index = z * sizeX + x;
+                heights[index] = surfaceHeights.getWorld(cell.minX() + x, cell.minY() + z);
+                slopes[index] = slopeFacet.getWorld(cell.minX() + x, cell.minY() + z);
+            }
+        }
+        buildIntegralImages();
+        buildFlatAround();
+    }
+
+    /**
+     * Loads a grid of column heights, indexed z * sizeX + x, without facets. Used by tests.
+     */
+    void load(int cellSizeX, int cellSizeZ, int[] columnHeights) {
+        resize(cellSizeX, cellSizeZ);
+        System.arraycopy(columnHeights, 0, heights, 0, sizeX * sizeZ);
+        Arrays.fill(slopes, 0, sizeX * sizeZ, (short) 0);
+        buildIntegralImages();
+        buildFlatAround();
+    }
+
+    /**
+     * @return the distance out to which the land is flat around a column of the last cell loaded
+     */
+    int getFlatAround(int x, int z) {
+        return flatAround[z * sizeX + x];
+    }
+
+    /**
+     * @return true if a column of the last cell loaded has peak like properties
+     */
+    boolean isPeak(int x, int z) {
+        return hasPeakLikeProperties(x, z);
+    }
+
+    private void resize(int cellSizeX, int cellSizeZ) {
+        sizeX = cellSizeX;
+        sizeZ = cellSizeZ;
+        int size = sizeX * sizeZ;
+        if (heights.length < size) {
+            heights = new int[size];
+            slopes = new short[size];
+            flatAround = new int[size];
+        }
+        int sumsSize = (sizeX + 1) * (sizeZ + 1);
+        if (heightSums.length < sumsSize) {
+            heightSums = new long[sumsSize];
+            squareSums = new long[sumsSize];
+        }
+    }
+
+    private void buildIntegralImages() {
+        int stride = sizeX + 1;
+        for (int x = 0; x <= sizeX; ++x) {
+            heightSums[x] = 0;
+            squareSums[x] = 0;
+        }
+        for (int z = 0; z < sizeZ; ++z) {
+            int row = (z + 1) * stride;
+            heightSums[row] = 0;
+            squareSums[row] = 0;
+            long rowSum = 0;
+            long rowSquares = 0;
+            for (int x = 0; x < sizeX; ++x) {
+                long height = heights[z * sizeX + x];
+                rowSum += height;
+                rowSquares += height * height;
+                heightSums[row + x + 1] = heightSums[row - stride + x + 1] + rowSum;
+                squareSums[row + x + 1] = squareSums[row - stride + x + 1] + rowSquares;
+            }
+        }
+    }
+
+    /**
+     * Works out, for every column, the distance out to which the square of columns around it all have its height.
+     * <p>
+     * The square of one less than a column's distance fits inside the square of the column before it, so each search
+     * starts there. Along a row the distance only grows by as much as it has shrunk, which keeps the pass linear.
+     */
+    private void buildFlatAround() {
+        int maxDistance = Math.max(sizeX, sizeZ);
+        for (int z = 0; z < sizeZ; ++z) {
+            int previous = 0;
+            for (int x = 0; x < sizeX; ++x) {
+                int m = Math.max(0, previous - 1);
+                while (m < maxDistance && isFlat(x - m - 1, z - m - 1, x + m + 1, z + m + 1)) {
+                    ++m;
+                }
+                flatAround[z * sizeX + x] = m;
+                previous = m;
+            }
+        }
+    }
+
+    /**
+     * @return true if all columns in the rectangle, clipped to the cell, have the same height
+     */
+    private boolean isFlat(int minX, int minZ, int maxX, int maxZ) {
+        int x0 = Math.max(0, minX);
+        int z0 = Math.max(0, minZ);
+        int x1 = Math.min(sizeX - 1, maxX) + 1;
+        int z1 = Math.min(sizeZ - 1, maxZ) + 1;
+        if (x0 >= x1 || z0 >= z1) {
+            return true;
+        }
+        int stride = sizeX + 1;
+        long count = (long) (x1 - x0) * (z1 - z0);
+        long sum = heightSums[z1 * stride + x1] - heightSums[z0 * stride + x1]
+                - heightSums[z1 * stride + x0] + heightSums[z0 * stride + x0];
+        long squares = squareSums[z1 * stride + x1] - squareSums[z0 * stride + x1]
+                - squareSums[z1 * stride + x0] + squareSums[z0 * stride + x0];
+        // count * variance, which is zero only when every height is the same
+        return count * squares == sum * sum;
+    }
+
+    /**
+     * @return true if the land falls away from the column in the way of a peak
+     */
+    private boolean hasPeakLikeProperties(int x, int z) {
+        for (int i = 0; i < PEAK_MARGINS.length; i++) {
+            if (!allDirectionsAtMarginLessThanAngle(x, z, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks at the eight columns at one of the peak margins from this one, straight and diagonally.
+     *
+     * @return true if few enough of them are above the margin's angle of elevation from this column
+     */
+    private boolean allDirectionsAtMarginLessThanAngle(int x, int z, int check) {
+        int margin = PEAK_MARGINS[check];
+        if (!withinMargin(x, margin, sizeX) || !withinMargin(z, margin, sizeZ)) {
+            return false;
+        }
+        int y = heights[z * sizeX + x];
+        int aboveAngle = 0;
+        for (int direction = 0; direction < 8; direction++) {
+            int dx = SlopeFacet.DIRECTION_X[direction];
+            int dz = SlopeFacet.DIRECTION_Z[direction];
+            int rise = heights[(z + dz * margin) * sizeX + x + dx * margin] - y;
+            if (rise > PEAK_RISE_LIMITS[check][dx != 0 && dz != 0 ? 1 : 0]) {
+                aboveAngle++;
+            }
+        }
+        return aboveAngle <= PEAK_MAX_ABOVE_ANGLE[check];
+    }
+
+    private static boolean withinMargin(int val, int margin, int size) {
+        return val >= margin && val < (size - margin);
+    }
+
+    private static boolean isCorrectBiome(Rect2i cell, BiomeFacet biomeFacet) {
+        Biome biomeMin = biomeFacet.getWorld(cell.minX(), cell.minY());
+        Biome biomeMax = biomeFacet.getWorld(cell.maxX(), cell.maxY());
+        return (biomeMin.equals(CoreBiome.MOUNTAINS) && biomeMax.equals(CoreBiome.MOUNTAINS))
+                || (biomeMin.equals(CoreBiome.SNOW) && biomeMax.equals(CoreBiome.SNOW))
+                || (biomeMin.equals(CoreBiome.PLAINS) && biomeMax.equals(CoreBiome.PLAINS));
+    }
+}
@@ -20,17 +20,18 @@ import org.slf4j.LoggerFactory;
 import org.terasology.biomesAPI.Biome;
 import org.terasology.core.world.CoreBiome;
 import org.terasology.core.world.generator.facets.BiomeFacet;
+import org.terasology.entitySystem.Component;
 import org.terasology.entitySystem.prefab.Prefab;
-import org.terasology.math.TeraMath;
+import org.terasology.math.Region3i;
 import org.terasology.math.geom.Rect2i;
+import org.terasology.nui.properties.OneOf;
 import org.terasology.structureTemplates.components.SpawnBlockRegionsComponent;
 import org.terasology.utilities.Assets;
 import org.terasology.utilities.procedural.Noise;
 import org.terasology.utilities.procedural.WhiteNoise;
-import org.terasology.world.block.Block;
-import org.terasology.world.block.BlockRegion;
-import org.terasology.world.block.BlockRegions;
+import org.terasology.world.chunks.ChunkConstants;
 import org.terasology.world.generation.Border3D;
+import org.terasology.world.generation.ConfigurableFacetProvider;
 import org.terasology.world.generation.Facet;
 import org.terasology.world.generation.FacetBorder;
 import org.terasology.world.generation.FacetProviderPlugin;
@@ -39,231 +40,190 @@ import org.terasology.world.generation.Produces;
 import org.terasology.world.generation.Requires;
 import org.terasology.world.generation.facets.ElevationFacet;
 import org.terasology.world.generation.facets.SeaLevelFacet;
-import org.terasology.world.generation.facets.SurfacesFacet;
 import org.terasology.world.generator.plugin.RegisterPlugin;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Determines where structures can be placed.  Will put structures at the surface.
+ * <p>
+ * How a place is chosen can be configured: either on the highest patch of level ground, or on a peak found by the
+ * {@link WizardTowerLocationFinder}.
  */
 @RegisterPlugin
 @Produces(WizardTowerFacet.class)
 @Requires({
         @Facet(value = SeaLevelFacet.class),
-        @Facet(value = ElevationFacet.class, border = @FacetBorder(sides = 16)),
+        @Facet(value = ElevationFacet.class, border = @FacetBorder(sides = WizardTowerProvider.ELEVATION_BORDER)),
         @Facet(value = BiomeFacet.class, border = @FacetBorder(sides = 16)),
-        @Facet(value = SurfacesFacet.class, border = @FacetBorder(sides = 5))
+        @Facet(value = SurfaceHeightsFacet.class, border = @FacetBorder(sides = 5)),
+        @Facet(SlopeFacet.class)
 })
-public class WizardTowerProvider implements FacetProviderPlugin {
+public class WizardTowerProvider implements ConfigurableFacetProvider, FacetProviderPlugin {
 
     private static final Logger logger = LoggerFactory.getLogger(WizardTowerProvider.class);
 
+    private static final String TOWER_PREFAB = "WizardBattles:tower";
+
+    /**
+     * How many columns of chunks to remember the towers of
+     */
+    private static final int CELLS_KEPT = 4096;
+
+    /**
+     * How far the elevation facet reaches beyond a cell, for comparing the cell with the land around it
+     */
+    static final int ELEVATION_BORDER = 16;
+
     private Noise noise;
 
+    /**
+     * The tower's blocks, compiled once from its prefab and shared by every tower placed
+     */
+    private TowerBlueprint blueprint;
+
+    /**
+     * The towers placed in each column of chunks, so that every chunk a tower reaches writes its part of it
+     */
+    private final StructurePieceIndex pieceIndex =
+            new StructurePieceIndex(ChunkConstants.SIZE_X, ChunkConstants.SIZE_Z, CELLS_KEPT);
+
+    private WizardTowerConfiguration configuration = new WizardTowerConfiguration();
+
+    /**
+     * Regions are generated on several threads at once, and each finder keeps its arrays between regions
+     */
+    private final ThreadLocal<WizardTowerLocationFinder> locationFinders =
+            ThreadLocal.withInitial(WizardTowerLocationFinder::new);
+
     public WizardTowerProvider() {
     }
 
-    StructureGenerator structureGenerator = (blockManager, view, rand, posX, posY, posZ) -> {
-        Optional<Prefab> prefabOptional = Assets.getPrefab("WizardBattles:tower");
-        if (prefabOptional.isPresent()) {
-            Prefab prefab = prefabOptional.get();
-            SpawnBlockRegionsComponent spawnBlockRegions = prefab.getComponent(SpawnBlockRegionsComponent.class);
-            if (spawnBlockRegions != null) {
-                for (SpawnBlockRegionsComponent.RegionToFill regionToFill : spawnBlockRegions.regionsToFill) {
-                    Block block = regionToFill.blockType;
-
-                    BlockRegion region = regionToFill.region;
-                    // Block positions are specified relative to the centre of the tower for X and Z,
-                    // and relative to the bottom for Y
-                    for (org.joml.Vector3i pos : BlockRegions.iterable(region)) {
-                        // These positions are relative to the corner of the chunk, as per view.setBlock()
-                        int relX = pos.x + posX;
-                        int relY = pos.y + posY;
-                        int relZ = pos.z + posZ;
-                        // encompasses uses world position
-                        int worldX = view.getRegion().minX() + relX;
-                        int worldY = view.getRegion().minY() + relY;
-                        int worldZ = view.getRegion().minZ() + relZ;
-                        if (view.getRegion().encompasses(worldX, worldY, worldZ)) {
-                                view.setBlock(relX, relY, relZ, block);
-                        }
-                    }
-                }
-            }
-        }
-    };
-
     @Override
     public void setSeed(long seed) {
         noise = new WhiteNoise(seed);
+        pieceIndex.clear();
+        blueprint = null;
+        Optional<Prefab> prefab = Assets.getPrefab(TOWER_PREFAB);
+        if (prefab.isPresent() && prefab.get().hasComponent(SpawnBlockRegionsComponent.class)) {
+            blueprint = TowerBlueprint.compile(prefab.get().getComponent(SpawnBlockRegionsComponent.class));
+        }
+        if (blueprint == null) {
+            logger.warn("No blocks to place for {}, no towers will be generated", TOWER_PREFAB);
+        }
     }
 
+    /**
+     * Each column of chunks is a cell which may hold one tower. Where it goes is worked out from the seed and the
+     * cell's own terrain, the same from every chunk in the column, and the tower stays within the cell's columns. So
+     * the towers reaching into the region are found whatever order regions are generated in.
+     */
     @Override
     public void process(GeneratingRegion region) {
-        Border3D border = region.getBorderForFacet(WizardTowerFacet.class)
-                .extendBy(WizardTower.TOP, WizardTower.BOTTOM, WizardTower.SIDES);
-
+        Border3D border = region.getBorderForFacet(WizardTowerFacet.class);
         WizardTowerFacet facet = new WizardTowerFacet(region.getRegion(), border);
-                Candidate candidate = findCandidate(region);
-
-        if (candidate != null) {
-            if (facet.getWorldRegion().encompasses(candidate.x, candidate.y, candidate.z)
-                    && noise.noise(candidate.x, candidate.z) > 0.5) {
-                logger.info("Generating at {} {} {}", candidate.x, candidate.y, candidate.z);
-                facet.setWorld(candidate.x, candidate.y, candidate.z, structureGenerator);
+        if (blueprint != null && coversWholeCells(region.getRegion())) {
+            for (StructurePiece piece : pieceIndex.getPieces(region.getRegion(),
+                    (cellX, cellZ) -> place(region, cellX, cellZ))) {
+                facet.addPiece(piece);
             }
         }
         region.setRegionFacet(WizardTowerFacet.class, facet);
     }
 
-    private Candidate findCandidate(GeneratingRegion region) {
-        if (Math.abs(region.getRegion().minX()) < 256 || Math.abs(region.getRegion().minZ()) < 256) {
+    /**
+     * @return the tower for the cell, or null if it has none
+     */
+    private StructurePiece place(GeneratingRegion region, int cellX, int cellZ) {
+        Rect2i cell = Rect2i.createFromMinAndSize(cellX * ChunkConstants.SIZE_X, cellZ * ChunkConstants.SIZE_Z,
+                ChunkConstants.SIZE_X, ChunkConstants.SIZE_Z);
+        Candidate candidate = configuration.placement == TowerPlacement.PEAK
+                ? locationFinders.get().find(region, cell)
+                : findCandidate(region, cell);
+        if (candidate == null || noise.noise(candidate.x, candidate.z) <= 0.5) {
             return null;
         }
+        logger.info("Generating at {} {} {}", candidate.x, candidate.y, candidate.z);
+        return StructurePiece.of(blueprint, candidate.x, candidate.y, candidate.z);
+    }
 
-        Border3D border = region.getBorderForFacet(WizardTowerFacet.class)
-                .extendBy(WizardTower.TOP, WizardTower.BOTTOM, WizardTower.SIDES);
-        WizardTowerFacet facet = new WizardTowerFacet(region.getRegion(), border);
+    /**
+     * Cells are only placed from regions holding all of their columns, as the search looks at the whole cell. The
+     * regions chunks are generated for always do.
+     */
+    private static boolean coversWholeCells(Region3i region) {
+        return Math.floorMod(region.minX(), ChunkConstants.SIZE_X) == 0
+                && Math.floorMod(region.maxX() + 1, ChunkConstants.SIZE_X) == 0
+                && Math.floorMod(region.minZ(), ChunkConstants.SIZE_Z) == 0
+                && Math.floorMod(region.maxZ() + 1, ChunkConstants.SIZE_Z) == 0;
+    }
+
+    private Candidate findCandidate(GeneratingRegion region, Rect2i cell) {
+        if (Math.abs(cell.minX()) < 256 || Math.abs(cell.minY()) < 256) {
+            return null;
+        }
 
         ElevationFacet elevationFacet = region.getRegionFacet(ElevationFacet.class);
 
-        Rect2i elevationRegion = elevationFacet.getWorldRegion();
-        int elevRegionMinX = elevationRegion.minX();
-        int elevRegionMinZ = elevationRegion.minY();
-        int elevRegionMaxX = elevationRegion.maxX();
-        int elevRegionMaxZ = elevationRegion.maxY();
-        int regionMinX = region.getRegion().minX();
-        int regionMinZ = region.getRegion().minZ();
-        int regionMaxX = region.getRegion().maxX();
-        int regionMaxZ = region.getRegion().maxZ();
-        int centerX = TeraMath.floorToInt(region.getRegion().center().x);
-        int centerZ = TeraMath.floorToInt(region.getRegion().center().z);
+        // The land around the cell, as far as the elevation facet reaches beyond a cell
+        int elevRegionMinX = cell.minX() - ELEVATION_BORDER;
+        int elevRegionMinZ = cell.minY() - ELEVATION_BORDER;
+        int elevRegionMaxX = cell.maxX() + ELEVATION_BORDER;
+        int elevRegionMaxZ = cell.maxY() + ELEVATION_BORDER;
+        int regionMinX = cell.minX();
+        int regionMinZ = cell.minY();
+        int regionMaxX = cell.maxX();
+        int regionMaxZ = cell.maxY();
+        int centerX = cell.minX() + cell.sizeX() / 2;
+        int centerZ = cell.minY() + cell.sizeY() / 2;
 
         float elevationSW = elevationFacet.getWorld(elevRegionMinX, elevRegionMinZ);
         float elevationW = elevationFacet.getWorld(centerX, elevRegionMinZ);
         float elevationNW = elevationFacet.getWorld(elevRegionMaxX, elevRegionMinZ);
-        float elevationRMin = elevationFacet.getWorld(regionMinX, regionMinZ);
-        float elevationRxXnZ = elevationFacet.getWorld(regionMaxX, regionMinZ);
         float elevationS = elevationFacet.getWorld(elevRegionMinX, centerZ);
-        float elevationCenter = elevationFacet.getWorld(centerX, centerZ);
         float elevationN = elevationFacet.getWorld(elevRegionMaxX, centerZ);
-        float elevationRnXxZ = elevationFacet.getWorld(regionMinX, regionMaxZ);
-        float elevationRMax = elevationFacet.getWorld(regionMaxX, regionMaxZ);
         float elevationSE = elevationFacet.getWorld(elevRegionMinX, elevRegionMaxZ);
         float elevationE = elevationFacet.getWorld(centerX, elevRegionMaxZ);
         float elevationNE = elevationFacet.getWorld(elevRegionMaxX, elevRegionMaxZ);
 
-        List<Float> regionElevations = Arrays.asList(elevationRMin, elevationRxXnZ, elevationCenter,
-                elevationRnXxZ, elevationRMax);
-
-        boolean allUnder = regionElevations.stream().allMatch(aFloat -> aFloat < region.getRegion().minY());
-        boolean allAbove = regionElevations.stream().allMatch(aFloat -> aFloat > region.getRegion().maxY());
-
-        if (allAbove || allUnder) {
-            return null;
-        }
-
         // find the highest ground, if it is flat, generate a tower given a certain probability
         float highest = -10000f;
-        int highestX = 0;
-        int highestZ = 0;
         for (int x = regionMinX; x <= regionMaxX; ++x) {
             for (int z = regionMinZ; z <= regionMaxZ; ++z) {
-                float elevation = elevationFacet.getWorld(x, z);
-                if (elevation > highest) {
-                    highest = elevation;
-                    highestX = x;
-                    highestZ = z;
-                }
+                highest = Math.max(highest, elevationFacet.getWorld(x, z));
             }
         }
-        final float finalHighest = highest;
-        List<Float> borderElevations = Arrays.asList(elevationSW, elevationW, elevationNW, elevationS,
-                elevationN, elevationSE, elevationE, elevationNE);
-        boolean bordersLowerThanHighest = borderElevations.stream().allMatch(be -> be < finalHighest);
-        if (!bordersLowerThanHighest) {
+        if (elevationSW >= highest || elevationW >= highest || elevationNW >= highest || elevationS >= highest
+                || elevationN >= highest || elevationSE >= highest || elevationE >= highest
+                || elevationNE >= highest) {
             return null; // still has to be higher than neighbours
         }
 
-        outer:
-        for (int x = 1; x <= 3; ++x) {
-            for (int z = 1; z <= 3; ++z) {
-                // corners
-                float sw = elevationFacet.getWorld(highestX - x, highestZ - z);
-                float nw = elevationFacet.getWorld(highestX + x, highestZ - z);
-                float se = elevationFacet.getWorld(highestX - x, highestZ + z);
-                float ne = elevationFacet.getWorld(highestX + x, highestZ + z);
-                if (Math.abs((highest - sw)) > 1.5 || Math.abs((highest - nw)) > 1.5
-                        || Math.abs((highest - se)) > 1.5 || Math.abs((highest - ne)) > 1.5) {
-                    break outer;
-                }
-            }
-        }
-
-        SurfacesFacet surfacesFacet = region.getRegionFacet(SurfacesFacet.class);
+        SurfaceHeightsFacet surfaceHeights = region.getRegionFacet(SurfaceHeightsFacet.class);
         BiomeFacet biomeFacet = region.getRegionFacet(BiomeFacet.class);
         List<Candidate> candidates = new ArrayList<>();
         for (int x = regionMinX; x <= regionMaxX; ++x) {
             for (int z = regionMinZ; z <= regionMaxZ; ++z) {
-                Optional<Float> primarySurface = surfacesFacet.getPrimarySurface(elevationFacet, x, z);
-                if (primarySurface.isPresent()) {
-                    int surface = TeraMath.floorToInt(primarySurface.get());
-                    Optional<Float> sw = surfacesFacet.getPrimarySurface(elevationFacet, x - 3, z - 3);
-                    Optional<Float> nw = surfacesFacet.getPrimarySurface(elevationFacet, x + 3, z - 3);
-                    Optional<Float> se = surfacesFacet.getPrimarySurface(elevationFacet, x - 3, z + 3);
-                    Optional<Float> ne = surfacesFacet.getPrimarySurface(elevationFacet, x + 3, z + 3);
-                    List<Optional<Float>> optionals = Arrays.asList(sw, nw, se, ne);
-                    boolean present = optionals.stream().allMatch(Optional::isPresent);
-                    if (present) {
-                        boolean surroundingBlocksApproxSameHeight =
-                                optionals.stream().map(Optional::get).allMatch(f -> {
-                                    int i = TeraMath.floorToInt(f);
-                                    return Math.abs(surface - i) <= 1;
-                                });
-                        Biome biome = biomeFacet.getWorld(x, z);
-                        if (surroundingBlocksApproxSameHeight && correctBiome(biome)) {
-                            Candidate c = new Candidate();
-                            c.x = x;
-                            c.y = surface;
-                            c.z = z;
-                            c.height = primarySurface.get();
-                            candidates.add(c);
-                        }
-                    }
+                int surface = surfaceHeights.getWorld(x, z);
+                boolean surroundingBlocksApproxSameHeight =
+                        isApproxSameHeight(surface, surfaceHeights.getWorld(x - 3, z - 3))
+                        && isApproxSameHeight(surface, surfaceHeights.getWorld(x + 3, z - 3))
+                        && isApproxSameHeight(surface, surfaceHeights.getWorld(x - 3, z + 3))
+                        && isApproxSameHeight(surface, surfaceHeights.getWorld(x + 3, z + 3));
+                if (surroundingBlocksApproxSameHeight && correctBiome(biomeFacet.getWorld(x, z))) {
+                    Candidate c = new Candidate();
+                    c.x = x;
+                    c.y = surface;
+                    c.z = z;
+                    c.height = surface;
+                    candidates.add(c);
                 }
             }
         }
 
-//        if (candidates.size() > 0 && num < 5) {
-//            logger.info("======================================");
-//            logger.info("Region {}", region.getRegion());
-//            logger.info("WizardTowerFacet border top {}, sides {}, bottom {}", border.getTop(), border.getSides(), border.getBottom());
-//            logger.info("WizardTowerFacet region {}", facet.getWorldRegion());
-//
-//            logger.info("ElevationFacet region {}", elevationFacet.getWorldRegion());
-//
-//            logger.info("Elevation at SW({}, {}) is {}", elevRegionMinX, elevRegionMinZ, elevationSW);
-//            logger.info("Elevation at W({}, {}) is {}", centerX, elevRegionMinZ, elevationW);
-//            logger.info("Elevation at NW({}, {}) is {}", elevRegionMaxX, elevRegionMinZ, elevationNW);
-//            logger.info("Elevation at RMin({}, {}) is {}", regionMinX, regionMinZ, elevationRMin);
-//            logger.info("Elevation at RxXnZ({}, {}) is {}", regionMaxX, regionMinZ, elevationRxXnZ);
-//            logger.info("Elevation at S({}, {}) is {}", elevRegionMinX, centerZ, elevationS);
-//            logger.info("Elevation at Center({}, {}) is {}", centerX, centerZ, elevationCenter);
-//            logger.info("Elevation at N({}, {}) is {}", elevRegionMaxX, centerZ, elevationN);
-//            logger.info("Elevation at RnXxZ({}, {}) is {}", regionMinX, regionMaxZ, elevationRnXxZ);
-//            logger.info("Elevation at RMax({}, {}) is {}", regionMaxX, regionMaxZ, elevationRMax);
-//            logger.info("Elevation at SE({}, {}) is {}", elevRegionMinX, elevRegionMaxZ, elevationSE);
-//            logger.info("Elevation at E({}, {}) is {}", centerX, elevRegionMaxZ, elevationE);
-//            logger.info("Elevation at NE({}, {}) is {}", elevRegionMaxX, elevRegionMaxZ, elevationNE);
-//
-//            logger.info("Num candidates {}", candidates.size());
-//
-//        }
         if (candidates.size() > 0) {
             candidates.sort(Comparator.comparingDouble(Candidate::getHeight));
 
@@ -271,7 +231,7 @@ public class WizardTowerProvider implements FacetProviderPlugin {
             for (int i = candidates.size() - 1; i >= 0; i--) {
                 candidate = candidates.get(i);
                 if (candidate.x > regionMinX + 7 && candidate.x < regionMaxX - 7 && candidate.z > regionMinZ + 7
-                        && candidate.z < regionMaxZ - 7 && candidate.y < region.getRegion().maxY() - 25) {
+                        && candidate.z < regionMaxZ - 7) {
                     return candidate;
                 }
             }
@@ -279,10 +239,49 @@ public class WizardTowerProvider implements FacetProviderPlugin {
         return null;
     }
 
+    @Override
+    public String getConfigurationName() {
+        return "Wizard Towers";
+    }
+
+    @Override
+    public Component getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public void setConfiguration(Component configuration) {
+        this.configuration = (WizardTowerConfiguration) configuration;
+        pieceIndex.clear();
+    }
+
+    private static boolean isApproxSameHeight(int surface, int other) {
+        return Math.abs(surface - other) <= 1;
+    }
+
     private boolean correctBiome(Biome biome) {
         return biome.equals(CoreBiome.MOUNTAINS) || biome.equals(CoreBiome.PLAINS) || biome.equals(CoreBiome.SNOW);
     }
 
+    /**
+     * The ways of choosing where in a column of chunks to put a tower.
+     */
+    public enum TowerPlacement {
+        /**
+         * The highest patch of level ground, if it is higher than the land around it
+         */
+        HIGHEST_LEVEL_GROUND,
+        /**
+         * A flat area with the land sloping away in most directions, found by the {@link WizardTowerLocationFinder}
+         */
+        PEAK
+    }
+
+    private static class WizardTowerConfiguration implements Component {
+        @OneOf.Enum(label = "Placement", description = "How the place for a tower is chosen in each column of chunks")
+        private TowerPlacement placement = TowerPlacement.HIGHEST_LEVEL_GROUND;
+    }
+
     public static class Candidate {
         public int x;
         public int y;
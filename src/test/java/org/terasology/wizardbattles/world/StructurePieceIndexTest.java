@@ -0,0 +1,220 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.junit.jupiter.api.Test;
+import org.terasology.math.Region3i;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.world.block.Block;
+import org.terasology.world.chunks.ChunkConstants;
+import org.terasology.world.chunks.CoreChunk;
+import org.terasology.world.generation.Border3D;
+import org.terasology.world.generation.Region;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Generates a tower that crosses a chunk boundary in both orders the chunks could be generated in: the index finds the
+ * pieces for each chunk, as the provider does, and the {@link WizardTowerRasterizer} writes them from the facet.
+ */
+public class StructurePieceIndexTest {
+
+    private static final Block STONE = new Block();
+    private static final Block GLASS = new Block();
+
+    private static final int MIN_X = -6;
+    private static final int MIN_Y = -1;
+    private static final int MIN_Z = -6;
+    private static final int SIZE_X = 13;
+    private static final int SIZE_Y = 27;
+    private static final int SIZE_Z = 13;
+
+    /**
+     * The tower of cell 0,0 stands near the top of the lowest chunk, so its upper part is in the chunk above
+     */
+    private static final Vector3i ORIGIN = new Vector3i(16, ChunkConstants.SIZE_Y - 4, 16);
+
+    private final TowerBlueprint blueprint = createBlueprint();
+    private final Map<Long, Integer> placements = new HashMap<>();
+
+    @Test
+    public void writesEverySliceOnceWhicheverChunkComesFirst() {
+        List<Vector3i> chunks = new ArrayList<>();
+        chunks.add(new Vector3i(0, 0, 0));
+        chunks.add(new Vector3i(0, 1, 0));
+        for (int order = 0; order < 2; order++) {
+            StructurePieceIndex index = new StructurePieceIndex(ChunkConstants.SIZE_X, ChunkConstants.SIZE_Z, 16);
+            placements.clear();
+            Map<Vector3i, Block> written = new HashMap<>();
+            int originsStored = 0;
+            for (Vector3i chunk : chunks) {
+                originsStored += generateChunk(index, chunk, written).getWorldEntries().size();
+            }
+            assertEquals(expectedBlocks(), written);
+            assertEquals(1, (int) placements.get(0L), "cell placed once");
+            assertEquals(1, originsStored, "origin stored only by the chunk it is in");
+            Collections.reverse(chunks);
+        }
+    }
+
+    @Test
+    public void findsNothingInChunksTheTowerDoesNotReach() {
+        StructurePieceIndex index = new StructurePieceIndex(ChunkConstants.SIZE_X, ChunkConstants.SIZE_Z, 16);
+        assertTrue(index.getPieces(chunkRegion(new Vector3i(0, 2, 0)), this::place).isEmpty());
+        assertTrue(index.getPieces(chunkRegion(new Vector3i(1, 0, 0)), this::place).isEmpty());
+        assertTrue(index.getPieces(chunkRegion(new Vector3i(0, -1, 0)), this::place).isEmpty());
+    }
+
+    @Test
+    public void placesDroppedCellsAgainInTheSamePlace() {
+        StructurePieceIndex index = new StructurePieceIndex(ChunkConstants.SIZE_X, ChunkConstants.SIZE_Z, 1);
+        List<StructurePiece> first = index.getPieces(chunkRegion(new Vector3i(0, 0, 0)), this::place);
+        index.getPieces(chunkRegion(new Vector3i(5, 0, 5)), this::place);
+        assertEquals(1, index.size());
+
+        Map<Vector3i, Block> written = new HashMap<>();
+        generateChunk(index, new Vector3i(0, 0, 0), written);
+        generateChunk(index, new Vector3i(3, 0, 3), written);
+        generateChunk(index, new Vector3i(0, 1, 0), written);
+        assertEquals(1, index.size());
+        assertEquals(3, (int) placements.get(0L), "cell placed again after being dropped");
+        assertEquals(first, index.getPieces(chunkRegion(new Vector3i(0, 1, 0)), this::place));
+        assertEquals(expectedBlocks(), written);
+    }
+
+    /**
+     * Only cell 0,0 has a tower. Counts how often each cell is placed.
+     */
+    private StructurePiece place(int cellX, int cellZ) {
+        placements.merge(((long) cellX << 32) | (cellZ & 0xFFFFFFFFL), 1, Integer::sum);
+        return cellX == 0 && cellZ == 0 ? StructurePiece.of(blueprint, ORIGIN.x, ORIGIN.y, ORIGIN.z) : null;
+    }
+
+    /**
+     * Fills a facet with the pieces overlapping the chunk and has the rasterizer write them, failing if a position is
+     * written twice.
+     *
+     * @return the facet the chunk was generated from
+     */
+    private WizardTowerFacet generateChunk(StructurePieceIndex index, Vector3i chunkPos,
+                                           Map<Vector3i, Block> written) {
+        Region3i chunkArea = chunkRegion(chunkPos);
+        WizardTowerFacet facet = new WizardTowerFacet(chunkArea, new Border3D(0, 0, 0));
+        for (StructurePiece piece : index.getPieces(chunkArea, this::place)) {
+            facet.addPiece(piece);
+        }
+        new WizardTowerRasterizer().generateChunk(stubChunk(chunkArea, written), stubRegion(chunkArea, facet));
+        return facet;
+    }
+
+    /**
+     * @return a region holding only the facet
+     */
+    private static Region stubRegion(Region3i chunkArea, WizardTowerFacet facet) {
+        return (Region) Proxy.newProxyInstance(Region.class.getClassLoader(), new Class<?>[]{Region.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRegion":
+                            return chunkArea;
+                        case "getFacet":
+                            return args[0] == WizardTowerFacet.class ? facet : null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * @return a chunk which records the world position of every block set in it
+     */
+    private static CoreChunk stubChunk(Region3i chunkArea, Map<Vector3i, Block> written) {
+        return (CoreChunk) Proxy.newProxyInstance(CoreChunk.class.getClassLoader(), new Class<?>[]{CoreChunk.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRegion":
+                            return chunkArea;
+                        case "getChunkSizeX":
+                            return ChunkConstants.SIZE_X;
+                        case "getChunkSizeY":
+                            return ChunkConstants.SIZE_Y;
+                        case "getChunkSizeZ":
+                            return ChunkConstants.SIZE_Z;
+                        case "setBlock":
+                            if (args.length == 4 && args[0] instanceof Integer) {
+                                int x = (Integer) args[0];
+                                int y = (Integer) args[1];
+                                int z = (Integer) args[2];
+                                assertTrue(x >= 0 && x < ChunkConstants.SIZE_X && y >= 0 && y < ChunkConstants.SIZE_Y
+                                        && z >= 0 && z < ChunkConstants.SIZE_Z, "set outside the chunk");
+                                Vector3i pos = new Vector3i(chunkArea.minX() + x, chunkArea.minY() + y,
+                                        chunkArea.minZ() + z);
+                                assertNull(written.put(pos, (Block) args[3]), "written twice at " + pos);
+                                return null;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static Region3i chunkRegion(Vector3i chunkPos) {
+        return Region3i.createFromMinAndSize(
+                new Vector3i(chunkPos.x * ChunkConstants.SIZE_X, chunkPos.y * ChunkConstants.SIZE_Y,
+                        chunkPos.z * ChunkConstants.SIZE_Z),
+                new Vector3i(ChunkConstants.SIZE_X, ChunkConstants.SIZE_Y, ChunkConstants.SIZE_Z));
+    }
+
+    /**
+     * A box with a pattern of stone, glass and gaps, so that misplaced or missing blocks show
+     */
+    private static TowerBlueprint createBlueprint() {
+        short[] blocks = new short[SIZE_X * SIZE_Y * SIZE_Z];
+        for (int y = 0; y < SIZE_Y; y++) {
+            for (int z = 0; z < SIZE_Z; z++) {
+                for (int x = 0; x < SIZE_X; x++) {
+                    blocks[(y * SIZE_Z + z) * SIZE_X + x] = paletteIndex(x, y, z);
+                }
+            }
+        }
+        return new TowerBlueprint(new Block[]{null, STONE, GLASS}, blocks, MIN_X, MIN_Y, MIN_Z,
+                SIZE_X, SIZE_Y, SIZE_Z);
+    }
+
+    private static short paletteIndex(int x, int y, int z) {
+        if ((x + y + z) % 5 == 0) {
+            return 0;
+        }
+        return (short) (1 + (x + 2 * y + 3 * z) % 2);
+    }
+
+    private static Map<Vector3i, Block> expectedBlocks() {
+        Block[] palette = {null, STONE, GLASS};
+        Map<Vector3i, Block> expected = new HashMap<>();
+        for (int y = 0; y < SIZE_Y; y++) {
+            for (int z = 0; z < SIZE_Z; z++) {
+                for (int x = 0; x < SIZE_X; x++) {
+                    short index = paletteIndex(x, y, z);
+                    if (index != 0) {
+                        expected.put(new Vector3i(ORIGIN.x + MIN_X + x, ORIGIN.y + MIN_Y + y, ORIGIN.z + MIN_Z + z),
+                                palette[index]);
+                    }
+                }
+            }
+        }
+        // The tower really does cross into the chunk above
+        assertTrue(expected.keySet().stream().anyMatch(pos -> pos.y < ChunkConstants.SIZE_Y));
+        assertTrue(expected.keySet().stream().anyMatch(pos -> pos.y >= ChunkConstants.SIZE_Y));
+        return expected;
+    }
+}
@@ -0,0 +1,213 @@
+// Copyright 2020 The Terasology Foundation
+// SPDX-License-Identifier: Apache-2.0
+package org.terasology.wizardbattles.world;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the finder's flat distances and peak checks against the ring scan and the per-neighbour angles it replaced,
+ * on seeded random height grids.
+ */
+public class WizardTowerLocationFinderTest {
+
+    @Test
+    public void matchesRingScanOnNoise() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int sizeX = 8 + random.nextInt(40);
+            int sizeZ = 8 + random.nextInt(40);
+            int[] heights = new int[sizeX * sizeZ];
+            for (int i = 0; i < heights.length; i++) {
+                heights[i] = 100 + random.nextInt(2);
+            }
+            check(seed, sizeX, sizeZ, heights);
+        }
+    }
+
+    @Test
+    public void matchesRingScanOnPlateaus() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int sizeX = 16 + random.nextInt(48);
+            int sizeZ = 16 + random.nextInt(48);
+            int[] heights = new int[sizeX * sizeZ];
+            for (int plateau = 0; plateau < 12; plateau++) {
+                int minX = random.nextInt(sizeX);
+                int minZ = random.nextInt(sizeZ);
+                int maxX = Math.min(sizeX, minX + 1 + random.nextInt(20));
+                int maxZ = Math.min(sizeZ, minZ + 1 + random.nextInt(20));
+                int height = random.nextInt(8);
+                for (int z = minZ; z < maxZ; z++) {
+                    for (int x = minX; x < maxX; x++) {
+                        heights[z * sizeX + x] = height;
+                    }
+                }
+            }
+            check(seed, sizeX, sizeZ, heights);
+        }
+    }
+
+    @Test
+    public void matchesRingScanOnHills() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int sizeX = 24 + random.nextInt(40);
+            int sizeZ = 24 + random.nextInt(40);
+            int[] heights = new int[sizeX * sizeZ];
+            for (int hill = 0; hill < 4; hill++) {
+                int centreX = random.nextInt(sizeX);
+                int centreZ = random.nextInt(sizeZ);
+                int top = 150 + random.nextInt(60);
+                int plateau = random.nextInt(5);
+                int steepness = 1 + random.nextInt(3);
+                for (int z = 0; z < sizeZ; z++) {
+                    for (int x = 0; x < sizeX; x++) {
+                        int distance = Math.max(Math.abs(x - centreX), Math.abs(z - centreZ));
+                        int height = top - Math.max(0, distance - plateau) * steepness;
+                        heights[z * sizeX + x] = Math.max(heights[z * sizeX + x], height);
+                    }
+                }
+            }
+            check(seed, sizeX, sizeZ, heights);
+        }
+    }
+
+    private static void check(long seed, int sizeX, int sizeZ, int[] heights) {
+        WizardTowerLocationFinder finder = new WizardTowerLocationFinder();
+        finder.load(sizeX, sizeZ, heights);
+        for (int z = 0; z < sizeZ; z++) {
+            for (int x = 0; x < sizeX; x++) {
+                String column = "seed " + seed + " column " + x + "," + z;
+                assertEquals(findFlatAround(heights, sizeX, sizeZ, x, z), finder.getFlatAround(x, z), column);
+                assertEquals(hasPeakLikeProperties(heights, sizeX, sizeZ, x, z), finder.isPeak(x, z), column);
+            }
+        }
+    }
+
+    /**
+     * The ring scan the finder used before its integral images: checks each ring of columns around the column in turn,
+     * out to the first one that is not level with it.
+     */
+    private static int findFlatAround(int[] heights, int sizeX, int sizeZ, int x, int z) {
+        int y = heights[z * sizeX + x];
+        int maxDistance = Math.max(sizeX, sizeZ);
+        for (int m = 1; m <= maxDistance; ++m) {
+            int minX = Math.max(0, x - m);
+            int maxX = Math.min(sizeX - 1, x + m);
+            int minZ = Math.max(0, z - m);
+            int maxZ = Math.min(sizeZ - 1, z + m);
+            for (int nZ = z - m; nZ <= z + m; nZ += 2 * m) {
+                if (nZ >= 0 && nZ < sizeZ) {
+                    for (int nX = minX; nX <= maxX; ++nX) {
+                        if (heights[nZ * sizeX + nX] != y) {
+                            return m - 1;
+                        }
+                    }
+                }
+            }
+            for (int nX = x - m; nX <= x + m; nX += 2 * m) {
+                if (nX >= 0 && nX < sizeX) {
+                    for (int nZ = minZ; nZ <= maxZ; ++nZ) {
+                        if (heights[nZ * sizeX + nX] != y) {
+                            return m - 1;
+                        }
+                    }
+                }
+            }
+        }
+        return maxDistance;
+    }
+
+    /**
+     * The peak check as it was before the finder worked out the angle's limits once: the angle up or down to each
+     * neighbour at the margin, compared with the limit one neighbour at a time.
+     */
+    private static boolean hasPeakLikeProperties(int[] heights, int sizeX, int sizeZ, int x, int z) {
+        Grid grid = new Grid(sizeX, sizeZ, heights);
+        Node node = grid.get(x, z);
+        boolean allMatchTwo = allDirectionsAtMarginLessThanAngle(x, z, node, grid, 2, 1.0, 0);
+        boolean allMatchSix = allDirectionsAtMarginLessThanAngle(x, z, node, grid, 5, -20.0, 2);
+        return allMatchTwo && allMatchSix;
+    }
+
+    private static boolean allDirectionsAtMarginLessThanAngle(int x, int z, Node node, Grid grid, int margin,
+                                                             double angle, int maxAboveAngle) {
+        if (withinMargin(x, margin, grid.sizeX) && withinMargin(z, margin, grid.sizeZ)) {
+            List<Node> neighboursAtDistance = grid.getNeighboursAtDistance(node, grid, margin);
+            Stream<Double> doubleStream = neighboursAtDistance.stream()
+                    .map(neighbour -> getAngleToNode(node, neighbour));
+
+            List<Double> doubles = doubleStream.collect(Collectors.toList());
+            List<Double> greaterThanAngle = doubles.stream()
+                    .filter(d -> d != null && d > angle).collect(Collectors.toList());
+
+            return greaterThanAngle.size() <= maxAboveAngle;
+        }
+        return false;
+    }
+
+    private static boolean withinMargin(int val, int margin, int size) {
+        return val >= margin && val < (size - margin);
+    }
+
+    private static Double getAngleToNode(Node main, Node other) {
+        int absX = Math.abs(main.x - other.x);
+        int absZ = Math.abs(main.z - other.z);
+        double adjacent = Math.hypot(absX, absZ);
+        int opposite = other.y - main.y;
+        if (adjacent > 0) {
+            double angle = Math.atan(opposite / adjacent);
+            return Math.toDegrees(angle);
+        }
+        return null;
+    }
+
+    private static final class Node {
+        private final int x;
+        private final int z;
+        private final int y;
+
+        private Node(int x, int z, int y) {
+            this.x = x;
+            this.z = z;
+            this.y = y;
+        }
+    }
+
+    private static final class Grid {
+        private final int sizeX;
+        private final int sizeZ;
+        private final int[] heights;
+
+        private Grid(int sizeX, int sizeZ, int[] heights) {
+            this.sizeX = sizeX;
+            this.sizeZ = sizeZ;
+            this.heights = heights;
+        }
+
+        private Node get(int x, int z) {
+            return new Node(x, z, heights[z * sizeX + x]);
+        }
+
+        private List<Node> getNeighboursAtDistance(Node node, Grid grid, int distance) {
+            List<Node> neighbours = new ArrayList<>();
+            for (int deltaX = -distance; deltaX <= distance; deltaX += distance) {
+                for (int deltaZ = -distance; deltaZ <= distance; deltaZ += distance) {
+                    if (deltaX == 0 && deltaZ == 0) {
+                        continue;
+                    }
+                    neighbours.add(grid.get(node.x + deltaX, node.z + deltaZ));
+                }
+            }
+            return neighbours;
+        }
+    }
+}